@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a <code>Server</code> takes a newly accepted connection.
+ * Connections are admitted only while the number of open admitted connections
+ * is below the configured maximum and while both the global accept rate and
+ * the accept rate of the remote address permit it. Rejected sockets are reset
+ * before a <code>Connection</code> is created for them.
+ * <p>
+ * Accept rates are enforced with token buckets. Buckets of remote addresses
+ * that have not connected for a while are discarded periodically, so memory
+ * use is bounded by the number of recently active addresses.
+ * <p>
+ * An <code>AdmissionControl</code> is not thread-safe and should only be used
+ * by servers registered to the same <code>Events</code> instance.
+ */
+public class AdmissionControl {
+  private static final long PRUNE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Map<InetAddress, TokenBucket> addressBuckets = new HashMap<InetAddress, TokenBucket>();
+  private int maxConnections = Integer.MAX_VALUE;
+  private double acceptRate;
+  private int acceptBurst;
+  private double addressAcceptRate;
+  private int addressAcceptBurst;
+  private TokenBucket acceptBucket;
+  private long nextPrune;
+  private int connections;
+  private long rejected;
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Limits the rate of admitted connections across all remote addresses to
+   * <code>acceptsPerSecond</code> with bursts of up to <code>burst</code>
+   * connections.
+   */
+  public void setAcceptRate(double acceptsPerSecond, int burst) {
+    this.acceptRate = acceptsPerSecond;
+    this.acceptBurst = burst;
+    this.acceptBucket = null;
+  }
+
+  /**
+   * Limits the rate of admitted connections from each remote address to
+   * <code>acceptsPerSecond</code> with bursts of up to <code>burst</code>
+   * connections.
+   */
+  public void setAcceptRatePerAddress(double acceptsPerSecond, int burst) {
+    this.addressAcceptRate = acceptsPerSecond;
+    this.addressAcceptBurst = burst;
+    this.addressBuckets.clear();
+  }
+
+  /**
+   * Returns the number of admitted connections that are still open.
+   */
+  public int connections() {
+    return connections;
+  }
+
+  /**
+   * Returns the number of rejected connections.
+   */
+  public long rejected() {
+    return rejected;
+  }
+
+  public boolean admit(InetAddress address) {
+    return admit(address, System.nanoTime());
+  }
+
+  /**
+   * Must be called once for every admitted connection when it is closed.
+   * <code>Server</code> does this automatically for the connections it
+   * accepts.
+   */
+  public void release() {
+    if (connections > 0)
+      connections--;
+  }
+
+  boolean admit(InetAddress address, long now) {
+    if (connections >= maxConnections)
+      return reject();
+
+    TokenBucket addressBucket = null;
+    if (addressAcceptRate > 0) {
+      if (nextPrune == 0 || now - nextPrune >= 0) {
+        prune(now);
+        nextPrune = now + PRUNE_INTERVAL_NANOS;
+      }
+      addressBucket = addressBuckets.get(address);
+      if (addressBucket == null) {
+        addressBucket = new TokenBucket(addressAcceptRate, addressAcceptBurst, now);
+        addressBuckets.put(address, addressBucket);
+      }
+      if (!addressBucket.tryAcquire(now))
+        return reject();
+    }
+
+    if (acceptRate > 0) {
+      if (acceptBucket == null)
+        acceptBucket = new TokenBucket(acceptRate, acceptBurst, now);
+      if (!acceptBucket.tryAcquire(now)) {
+        if (addressBucket != null)
+          addressBucket.refund();
+        return reject();
+      }
+    }
+
+    connections++;
+    return true;
+  }
+
+  private boolean reject() {
+    rejected++;
+    return false;
+  }
+
+  private void prune(long now) {
+    Iterator<TokenBucket> it = addressBuckets.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().isFull(now))
+        it.remove();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pins the calling thread to a set of CPUs. Only Linux is supported: the
+ * native thread id is read from <code>/proc/thread-self/stat</code> and the
+ * affinity mask is set with <code>taskset(1)</code>, which uses
+ * <code>sched_setaffinity(2)</code>. On other platforms, or if either is
+ * unavailable, pinning fails without side effects.
+ */
+abstract class Affinity {
+  private static final String TASKSET = "taskset";
+
+  static boolean pinCurrentThread(int[] cpus) {
+    if (cpus.length == 0 || !System.getProperty("os.name", "").startsWith("Linux"))
+      return false;
+
+    try {
+      String tid = currentThreadId();
+      Process process = new ProcessBuilder(TASKSET, "-p", "-c", cpuList(cpus), tid).redirectErrorStream(true).start();
+      drain(process.getInputStream());
+      return process.waitFor() == 0;
+    } catch (IOException e) {
+      return false;
+    } catch (NumberFormatException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Returns the native id of the calling thread, the first field of
+   * <code>/proc/thread-self/stat</code>. The symlink itself is not resolved,
+   * since canonical paths may be cached by path string and would then name
+   * another thread.
+   */
+  static String currentThreadId() throws IOException {
+    InputStream in = new FileInputStream("/proc/thread-self/stat");
+    try {
+      StringBuilder result = new StringBuilder();
+      int c;
+      while ((c = in.read()) >= 0 && c != ' ')
+        result.append((char) c);
+      Integer.parseInt(result.toString());
+      return result.toString();
+    } finally {
+      in.close();
+    }
+  }
+
+  static String cpuList(int[] cpus) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < cpus.length; i++) {
+      if (cpus[i] < 0)
+        throw new IllegalArgumentException("Invalid CPU: " + cpus[i]);
+      if (i > 0)
+        result.append(',');
+      result.append(cpus[i]);
+    }
+    return result.toString();
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    try {
+      byte[] buffer = new byte[256];
+      while (in.read(buffer) >= 0)
+        ;
+    } finally {
+      in.close();
+    }
+  }
+}
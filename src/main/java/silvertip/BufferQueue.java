@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * An unbounded transmit queue that keeps references to the buffers passed to
+ * <code>Connection.send()</code> until they are written. Encoded messages are
+ * appended to a direct buffer owned by the queue until it is full; when other
+ * buffers have been queued after it, the rest of it is queued again as a new
+ * view. Shared buffers are released as soon as their views have been written.
+ * <p>
+ * A copying queue copies added buffers into the encode buffer instead, for
+ * use next to queues that copy.
+ */
+class BufferQueue extends TransmitQueue {
+  private static final int ENCODE_BUFFER_SIZE = 4096;
+
+  private static final MessageEncoder<ByteBuffer> COPY = new MessageEncoder<ByteBuffer>() {
+    @Override public void encode(ByteBuffer message, ByteBuffer buffer) {
+      buffer.put(message.duplicate());
+    }
+  };
+
+  private final boolean copy;
+
+  private ByteBuffer[] buffers = new ByteBuffer[16];
+  private SharedBuffer[] owners = new SharedBuffer[16];
+  private int head;
+  private int size;
+  private ByteBuffer encodeBuffer;
+  private boolean encodeBufferQueued;
+  private long pendingBytes;
+
+  BufferQueue() {
+    this(false);
+  }
+
+  BufferQueue(boolean copy) {
+    this.copy = copy;
+  }
+
+  @Override boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override long pendingBytes() {
+    return pendingBytes;
+  }
+
+  @Override void add(ByteBuffer buffer) {
+    if (copy)
+      encode(buffer, COPY, null);
+    else
+      queue(buffer);
+  }
+
+  private void queue(ByteBuffer buffer) {
+    if (size == buffers.length) {
+      ByteBuffer[] newBuffers = new ByteBuffer[buffers.length * 2];
+      SharedBuffer[] newOwners = new SharedBuffer[buffers.length * 2];
+      for (int i = 0; i < size; i++) {
+        newBuffers[i] = buffers[(head + i) & (buffers.length - 1)];
+        newOwners[i] = owners[(head + i) & (buffers.length - 1)];
+      }
+      buffers = newBuffers;
+      owners = newOwners;
+      head = 0;
+    }
+    buffers[(head + size) & (buffers.length - 1)] = buffer;
+    size++;
+    pendingBytes += buffer.remaining();
+  }
+
+  @Override void add(ByteBuffer buffer, SharedBuffer owner) {
+    if (copy) {
+      super.add(buffer, owner);
+      return;
+    }
+    queue(buffer);
+    owners[(head + size - 1) & (buffers.length - 1)] = owner;
+  }
+
+  @Override <M> void encode(M message, MessageEncoder<? super M> encoder, Connection.Callback<?> callback) {
+    if (encodeBuffer == null) {
+      newEncodeBuffer(ENCODE_BUFFER_SIZE);
+    } else if (!encodeBufferQueued) {
+      encodeBuffer.clear();
+      encodeBuffer.limit(0);
+    } else if (last() != encodeBuffer) {
+      int end = encodeBuffer.limit();
+      encodeBuffer = encodeBuffer.duplicate();
+      encodeBuffer.position(end);
+      encodeBufferQueued = false;
+    }
+
+    int length;
+    while ((length = append(encodeBuffer, message, encoder, encodeBuffer.capacity(), callback)) < 0) {
+      if (encodeBuffer.limit() > 0)
+        newEncodeBuffer(ENCODE_BUFFER_SIZE);
+      else
+        newEncodeBuffer(encodeBuffer.capacity() * 2);
+    }
+
+    if (!encodeBufferQueued) {
+      queue(encodeBuffer);
+      encodeBufferQueued = true;
+    } else {
+      pendingBytes += length;
+    }
+  }
+
+  @Override boolean flush(GatheringByteChannel channel) throws IOException {
+    while (size > 0) {
+      ByteBuffer buffer = buffers[head];
+      while (buffer.hasRemaining()) {
+        int written = channel.write(buffer);
+        if (written == 0)
+          return false;
+        bytesWritten += written;
+        pendingBytes -= written;
+      }
+      remove();
+    }
+    return true;
+  }
+
+  @Override void discard() {
+    while (size > 0)
+      remove();
+    pendingBytes = 0;
+  }
+
+  private void remove() {
+    ByteBuffer buffer = buffers[head];
+    SharedBuffer owner = owners[head];
+    buffers[head] = null;
+    owners[head] = null;
+    head = (head + 1) & (buffers.length - 1);
+    size--;
+    if (buffer == encodeBuffer)
+      encodeBufferQueued = false;
+    if (owner != null)
+      owner.release();
+  }
+
+  private ByteBuffer last() {
+    return buffers[(head + size - 1) & (buffers.length - 1)];
+  }
+
+  private void newEncodeBuffer(int capacity) {
+    encodeBuffer = ByteBuffer.allocateDirect(capacity);
+    encodeBuffer.limit(0);
+    encodeBufferQueued = false;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the data a <code>Connection</code> receives to a file, one record per
+ * socket read, so that it can be fed back through the same read path with
+ * <code>Replay</code>. Data is recorded before decompression and parsing.
+ * <p>
+ * The file starts with a header of the magic number, format version, and the
+ * wall-clock time of the capture in milliseconds. Each record consists of the
+ * nanoseconds since the previous record and the length of the data as
+ * variable-length integers, followed by the data itself.
+ * <p>
+ * A capture is written from the event loop thread. If writing fails, the
+ * capture stops recording and <code>failure()</code> returns the error,
+ * instead of failing the connection.
+ */
+public class Capture {
+  static final int MAGIC = 0x53564350;
+  static final short VERSION = 1;
+  static final int HEADER_LENGTH = 4 + 2 + 8;
+  static final int MAX_RECORD_HEADER_LENGTH = 10 + 5;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private long lastNanos;
+  private long records;
+  private IOException failure;
+
+  public static Capture open(File file) throws IOException {
+    return new Capture(new FileOutputStream(file).getChannel());
+  }
+
+  Capture(FileChannel channel) throws IOException {
+    this.channel = channel;
+    this.lastNanos = System.nanoTime();
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putLong(System.currentTimeMillis());
+  }
+
+  public long records() {
+    return records;
+  }
+
+  public IOException failure() {
+    return failure;
+  }
+
+  /**
+   * Writes buffered records to the file.
+   */
+  public void flush() throws IOException {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  public void close() throws IOException {
+    try {
+      if (failure == null)
+        flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Records <code>length</code> bytes of <code>source</code> starting at
+   * <code>offset</code>, without changing the position of <code>source</code>.
+   */
+  void record(ByteBuffer source, int offset, int length) {
+    if (failure != null)
+      return;
+    long now = System.nanoTime();
+    try {
+      if (buffer.remaining() < MAX_RECORD_HEADER_LENGTH + length)
+        flush();
+      putVarLong(buffer, now - lastNanos);
+      putVarLong(buffer, length);
+      ByteBuffer data = source.duplicate();
+      data.limit(offset + length);
+      data.position(offset);
+      if (data.remaining() > buffer.remaining()) {
+        flush();
+        while (data.hasRemaining())
+          channel.write(data);
+      } else {
+        buffer.put(data);
+      }
+      lastNanos = now;
+      records++;
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  static void putVarLong(ByteBuffer buffer, long value) {
+    while ((value & ~0x7fL) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Returns the variable-length integer at the position of
+   * <code>buffer</code>, or -1 if <code>buffer</code> does not contain all of
+   * it. The position is only moved if the whole integer was read.
+   */
+  static long getVarLong(ByteBuffer buffer) {
+    long result = 0;
+    int position = buffer.position();
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position == buffer.limit())
+        return -1;
+      byte b = buffer.get(position++);
+      result |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        buffer.position(position);
+        return result;
+      }
+    }
+    throw new IllegalArgumentException("Malformed variable-length integer");
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A compression stage between the byte stream of a <code>Connection</code>
+ * and its <code>MessageParser</code>. Outbound data is encoded into frames
+ * before it is queued for writing, and inbound frames are decoded before they
+ * are parsed. Codecs are stateful, so every connection needs its own instance
+ * and both ends of a connection must use the same codec.
+ */
+public interface CompressionCodec {
+  /**
+   * Returns the maximum length of one encoded frame, including its header.
+   */
+  int maxFrameLength();
+
+  /**
+   * Encodes the remaining bytes of <code>source</code>, or as many of them as
+   * fit in one frame, as a frame into <code>target</code> and advances the
+   * position of <code>source</code> past the encoded bytes.
+   *
+   * @throws java.nio.BufferOverflowException
+   *           if the frame does not fit in <code>target</code>. Neither
+   *           <code>source</code> nor the state of the codec is changed in that
+   *           case.
+   */
+  void encode(ByteBuffer source, ByteBuffer target);
+
+  /**
+   * Decodes complete frames from <code>source</code> into <code>target</code>
+   * and leaves the position of <code>source</code> at the first frame that has
+   * not been decoded.
+   *
+   * @return zero if all complete frames in <code>source</code> were decoded, or
+   *         the number of bytes <code>target</code> needs to have remaining to
+   *         decode the next frame.
+   * @throws GarbledMessageException
+   *           if <code>source</code> contains an invalid frame. The stream
+   *           cannot be decoded any further.
+   */
+  int decode(ByteBuffer source, ByteBuffer target) throws GarbledMessageException;
+}
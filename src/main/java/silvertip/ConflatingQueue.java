@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A transmit queue that keeps at most one pending message per key. A message
+ * whose key matches a message that is still waiting to be written replaces
+ * that message in place, so the peer sees the latest state for the key at the
+ * position of the first pending update. Messages that are already being
+ * written are never replaced.
+ * <p>
+ * Each pending message occupies a slot with its own off-heap buffer. Slots and
+ * their buffers are reused, so a slow peer costs memory in proportion to the
+ * number of keys rather than the update rate. The queue keeps as many free
+ * slots as keys have been pending at once, or <code>MIN_FREE_SLOTS</code>,
+ * and leaves slots beyond that, such as those of a burst of messages without
+ * a key, to the garbage collector. Buffers passed to <code>add()</code> are
+ * copied and have no key.
+ */
+class ConflatingQueue extends TransmitQueue {
+  private static final int INITIAL_SLOT_CAPACITY = 256;
+  private static final int MAX_WRITE_SLOTS = 64;
+  private static final int MIN_FREE_SLOTS = 64;
+
+  private final ConflationKey<Object> conflationKey;
+  private final Map<Object, Slot> pending = new HashMap<Object, Slot>();
+  private final ArrayDeque<Slot> slots = new ArrayDeque<Slot>();
+  private final ArrayDeque<Slot> freeSlots = new ArrayDeque<Slot>();
+  private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_WRITE_SLOTS];
+  private long pendingBytes;
+  private int maxPendingKeys;
+
+  @SuppressWarnings("unchecked")
+  ConflatingQueue(ConflationKey<?> conflationKey) {
+    this.conflationKey = (ConflationKey<Object>) conflationKey;
+  }
+
+  @Override boolean isEmpty() {
+    return slots.isEmpty();
+  }
+
+  int size() {
+    return slots.size();
+  }
+
+  int freeSlots() {
+    return freeSlots.size();
+  }
+
+  @Override long pendingBytes() {
+    return pendingBytes;
+  }
+
+  @Override void add(ByteBuffer buffer) {
+    Slot slot = newSlot(null, buffer.remaining());
+    slot.buffer.put(buffer.duplicate());
+    slot.buffer.flip();
+    slots.add(slot);
+    pendingBytes += slot.buffer.remaining();
+  }
+
+  @Override <M> void encode(M message, MessageEncoder<? super M> encoder, Connection.Callback<?> callback) {
+    Object key = conflationKey.key(message);
+    Slot slot = key != null ? pending.get(key) : null;
+    if (slot == null || slot.buffer.position() > 0) {
+      slot = newSlot(key, INITIAL_SLOT_CAPACITY);
+      encode(slot, message, encoder, callback);
+      slots.add(slot);
+      if (key != null) {
+        pending.put(key, slot);
+        maxPendingKeys = Math.max(maxPendingKeys, pending.size());
+      }
+      pendingBytes += slot.buffer.remaining();
+    } else {
+      int replaced = slot.buffer.remaining();
+      encode(slot, message, encoder, callback);
+      pendingBytes += slot.buffer.remaining() - replaced;
+    }
+  }
+
+  @Override boolean flush(GatheringByteChannel channel) throws IOException {
+    while (!slots.isEmpty()) {
+      int count = 0;
+      for (Slot slot : slots) {
+        writeBuffers[count++] = slot.buffer;
+        if (count == writeBuffers.length)
+          break;
+      }
+      long written = channel.write(writeBuffers, 0, count);
+      for (int i = 0; i < count; i++)
+        writeBuffers[i] = null;
+      bytesWritten += written;
+      pendingBytes -= written;
+      while (!slots.isEmpty() && !slots.peek().buffer.hasRemaining())
+        remove();
+      if (written == 0)
+        return false;
+    }
+    return true;
+  }
+
+  /*
+   * Every slot holds one message, and replacing a message in place would move
+   * recorded boundaries, so boundaries come from the slots instead.
+   */
+  @Override void endOfMessage() {
+  }
+
+  @Override long remainingInMessage() {
+    Slot slot = slots.peek();
+    if (slot == null || slot.buffer.position() == 0)
+      return 0;
+    return slot.buffer.remaining();
+  }
+
+  @Override void discard() {
+    while (!slots.isEmpty())
+      remove();
+    pendingBytes = 0;
+  }
+
+  private <M> void encode(Slot slot, M message, MessageEncoder<? super M> encoder, Connection.Callback<?> callback) {
+    slot.buffer.clear();
+    slot.buffer.limit(0);
+    while (append(slot.buffer, message, encoder, slot.buffer.capacity(), callback) < 0) {
+      slot.buffer = ByteBuffer.allocateDirect(slot.buffer.capacity() * 2);
+      slot.buffer.limit(0);
+    }
+  }
+
+  private Slot newSlot(Object key, int capacity) {
+    Slot slot = freeSlots.poll();
+    if (slot == null)
+      slot = new Slot();
+    if (slot.buffer == null || slot.buffer.capacity() < capacity)
+      slot.buffer = ByteBuffer.allocateDirect(Math.max(capacity, INITIAL_SLOT_CAPACITY));
+    slot.buffer.clear();
+    slot.key = key;
+    return slot;
+  }
+
+  private void remove() {
+    Slot slot = slots.poll();
+    if (slot.key != null && pending.get(slot.key) == slot)
+      pending.remove(slot.key);
+    slot.key = null;
+    if (freeSlots.size() < Math.max(maxPendingKeys, MIN_FREE_SLOTS))
+      freeSlots.push(slot);
+  }
+
+  private static class Slot {
+    Object key;
+    ByteBuffer buffer;
+  }
+}
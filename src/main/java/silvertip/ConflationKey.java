@@ -0,0 +1,30 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+/**
+ * Extracts the key that outbound messages are conflated by.
+ *
+ * @see Connection#setConflationKey(ConflationKey)
+ */
+public interface ConflationKey<M> {
+  /**
+   * Returns the key of <code>message</code>, or <code>null</code> if the
+   * message must never be replaced by a later one. Keys must implement
+   * <code>equals()</code> and <code>hashCode()</code>.
+   */
+  Object key(M message);
+}
@@ -19,14 +19,16 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Connection<T> implements EventSource {
   public interface Callback<T> {
@@ -41,13 +43,69 @@ public class Connection<T> implements EventSource {
     void sent(ByteBuffer buffer);
   }
 
-  private List<ByteBuffer> txBuffers = new LinkedList<ByteBuffer>();
-  private ByteBuffer rxBuffer = ByteBuffer.allocate(4096);
+  /**
+   * The lane a message is sent in. Urgent messages are written ahead of
+   * normal ones as soon as the normal message being written, if any, has been
+   * written completely.
+   */
+  public enum Priority {
+    URGENT, NORMAL
+  }
+
+  public static final int DEFAULT_READ_BUDGET_BYTES = 64 * 1024;
+  public static final int DEFAULT_READ_BUDGET_MESSAGES = 1024;
+  public static final long DEFAULT_LINGER_MILLIS = 5000;
+  public static final int DEFAULT_MAX_RECEIVE_BUFFER_SIZE = 1024 * 1024;
+
+  private static final int BYTES_IN = 0;
+  private static final int RX_BUFFER_SIZE = 4096;
+
+  private static final int BYTES_OUT = 1;
+  private static final int MESSAGES_IN = 2;
+  private static final int MESSAGES_OUT = 3;
+  private static final int GARBLED_MESSAGES = 4;
+  private static final int TX_QUEUE_BYTES = 5;
+
+  private TransmitQueue txQueue = new BufferQueue();
+  private LanedQueue lanes;
+  private int readBudgetBytes = DEFAULT_READ_BUDGET_BYTES;
+  private int readBudgetMessages = DEFAULT_READ_BUDGET_MESSAGES;
+  private boolean dispatching;
+  private ByteBuffer rxBuffer = ByteBuffer.allocate(RX_BUFFER_SIZE);
+  private int maxRxBufferSize = DEFAULT_MAX_RECEIVE_BUFFER_SIZE;
+  private CompressionCodec codec;
+  private MessageEncoder<ByteBuffer> codecEncoder;
+  private ByteBuffer codecRxBuffer;
+  private ByteBuffer codecTxBuffer;
+  private MessageBatch<T> batch = new MessageBatch<T>();
+  private MessagePool<T> messagePool;
+  private AdmissionControl admissionControl;
   private SelectionKey selectionKey;
-  private SocketChannel channel;
+  private SelectableChannel channel;
+  private ReadableByteChannel input;
+  private GatheringByteChannel output;
+  private boolean replaying;
+  private boolean blocked;
+  private boolean connecting;
+  private long demand = Long.MAX_VALUE;
+  private Runnable drainListener;
+  private boolean closing;
+  boolean closed;
+  private long lingerNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LINGER_MILLIS);
+  private Timeout lingerTimeout;
+  private final Runnable lingerExpired = new Runnable() {
+    @Override public void run() {
+      closeNow();
+    }
+  };
+  private Capture capture;
   private Events events;
   private MessageParser<T> parser;
+  private ResumableMessageParser<T> resumableParser;
+  private final ParseState parseState = new ParseState();
   private Callback<T> callback;
+  private final Metrics metrics = new Metrics("BytesIn", "BytesOut", "MessagesIn", "MessagesOut",
+      "GarbledMessages", "TxQueueBytes");
 
   public static <T> Connection<T> connect(InetSocketAddress address, MessageParser<T> parser, Callback<T> callback)
       throws IOException {
@@ -57,54 +115,450 @@ public class Connection<T> implements EventSource {
     return new Connection<T>(channel, parser, callback);
   }
 
+  /**
+   * Starts connecting to <code>address</code> without blocking. The attempt
+   * completes in the event loop once the connection has been registered:
+   * <code>Callback.connected()</code> is called when the connection has been
+   * established and <code>Callback.closed()</code> if it fails. Data sent in
+   * the meantime is queued.
+   */
+  public static <T> Connection<T> open(InetSocketAddress address, MessageParser<T> parser, Callback<T> callback)
+      throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.connect(address);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return new Connection<T>(channel, parser, callback);
+  }
+
   public Connection(SocketChannel channel, MessageParser<T> parser, Callback<T> callback) {
+    this(channel, channel, channel, parser, callback);
+  }
+
+  /**
+   * Creates a connection that reads from <code>input</code> and writes to
+   * <code>output</code> whenever <code>channel</code> is selected.
+   */
+  Connection(SelectableChannel channel, ReadableByteChannel input, GatheringByteChannel output,
+      MessageParser<T> parser, Callback<T> callback) {
     this.channel = channel;
+    this.input = input;
+    this.output = output;
     this.callback = callback;
     this.parser = parser;
+    if (parser instanceof ResumableMessageParser)
+      this.resumableParser = (ResumableMessageParser<T>) parser;
   }
 
   @Override public SelectionKey register(Events events) throws IOException {
-    this.selectionKey = channel.register(events.selector(), SelectionKey.OP_READ);
     this.events = events;
+    if (channel instanceof SocketChannel && ((SocketChannel) channel).isConnectionPending()) {
+      this.selectionKey = channel.register(events.selector(), SelectionKey.OP_CONNECT);
+      this.connecting = true;
+      return selectionKey;
+    }
+    this.selectionKey = channel.register(events.selector(), demand > 0 ? SelectionKey.OP_READ : 0);
 
     callback.connected(this);
 
     return selectionKey;
   }
 
-  @Override public void read() throws IOException {
-    int len;
+  /**
+   * Makes this connection copy outbound data into an off-heap ring buffer of
+   * <code>capacity</code> bytes instead of queueing the buffers passed to
+   * <code>send()</code>. Buffers can then be reused as soon as
+   * <code>send()</code> returns, and sends fail with
+   * <code>BufferOverflowException</code> when the ring has no room for them.
+   *
+   * @throws IllegalStateException
+   *           if the connection has outbound data pending.
+   */
+  public void setTransmitRingCapacity(int capacity) {
+    if (!txQueue.isEmpty())
+      throw new IllegalStateException("Connection has outbound data pending");
+    txQueue = new TransmitRing(capacity);
+    lanes = null;
+  }
+
+  /**
+   * Makes this connection conflate outbound messages by the key that
+   * <code>key</code> extracts from them. While the socket is not writable, a
+   * message sent with <code>send(message, encoder)</code> replaces the pending
+   * message with the same key in place instead of being queued behind it.
+   * Other sends are queued as usual. All messages sent with an encoder must be
+   * of the type <code>key</code> accepts.
+   *
+   * @throws IllegalStateException
+   *           if the connection has outbound data pending or uses compression.
+   */
+  public void setConflationKey(ConflationKey<?> key) {
+    if (!txQueue.isEmpty())
+      throw new IllegalStateException("Connection has outbound data pending");
+    if (codec != null)
+      throw new IllegalStateException("Conflation is not supported with compression");
+    txQueue = new ConflatingQueue(key);
+    lanes = null;
+  }
+
+  /**
+   * Sets the pool that parsed messages are returned to after
+   * <code>Callback.messages()</code> returns. The pool is typically the same
+   * one <code>parser</code> draws its messages from.
+   */
+  public void setMessagePool(MessagePool<T> messagePool) {
+    this.messagePool = messagePool;
+  }
+
+  void setAdmissionControl(AdmissionControl admissionControl) {
+    this.admissionControl = admissionControl;
+  }
+
+  /**
+   * Keeps <code>message</code> from being returned to the message pool when
+   * the current <code>Callback.messages()</code> invocation returns. The caller
+   * becomes responsible for releasing the message to the pool.
+   * <p>
+   * The receive buffer is reused once the invocation returns. A message that
+   * implements <code>BufferView</code> is detached from it here; any other
+   * retained message must not be a view into the receive buffer, such as the
+   * slices <code>DelimiterParser</code> returns.
+   */
+  public void retain(T message) {
+    if (batch.retain(message) && message instanceof BufferView)
+      ((BufferView) message).detach();
+  }
+
+  /**
+   * Makes this connection pass all inbound and outbound data through
+   * <code>codec</code>. The peer must use the same codec, and the codec must be
+   * set before any data is sent or received, typically from
+   * <code>Callback.connected()</code> or the connection factory.
+   *
+   * @throws IllegalStateException
+   *           if the connection conflates messages or has sent urgent messages.
+   */
+  public void setCompressionCodec(final CompressionCodec codec) {
+    if ((lanes != null ? lanes.normal() : txQueue) instanceof ConflatingQueue)
+      throw new IllegalStateException("Conflation is not supported with compression");
+    if (lanes != null)
+      throw new IllegalStateException("Priority lanes are not supported with compression");
+    this.codec = codec;
+    this.codecEncoder = new MessageEncoder<ByteBuffer>() {
+      @Override public void encode(ByteBuffer source, ByteBuffer target) {
+        codec.encode(source, target);
+      }
+    };
+    this.codecRxBuffer = ByteBuffer.allocate(codec.maxFrameLength());
+    this.codecTxBuffer = ByteBuffer.allocate(4096);
+  }
+
+  /**
+   * Records all data this connection receives to <code>capture</code>. The
+   * caller closes the capture after the connection has been closed.
+   */
+  public void setCapture(Capture capture) {
+    this.capture = capture;
+  }
+
+  /**
+   * Makes this connection read from <code>input</code> and write to
+   * <code>output</code> instead of its socket, and calls
+   * <code>Callback.connected()</code>.
+   */
+  void replay(ReadableByteChannel input, GatheringByteChannel output) {
+    this.input = input;
+    this.output = output;
+    this.replaying = true;
+    callback.connected(this);
+  }
+
+  /**
+   * Returns the traffic counters of this connection: bytes and messages in
+   * and out, garbled messages, and the number of bytes waiting in the
+   * transmit queue as of the last write attempt.
+   */
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the number of bytes queued for sending that have not been
+   * written to the socket yet.
+   */
+  public long pendingBytes() {
+    return txQueue.pendingBytes();
+  }
+
+  /**
+   * Sets how much this connection may read per readiness event. The
+   * connection keeps reading and dispatching messages until the socket is
+   * drained or until it has read at least <code>bytes</code> bytes or
+   * dispatched at least <code>messages</code> messages, after which it yields
+   * to other event sources.
+   */
+  public void setReadBudget(int bytes, int messages) {
+    if (bytes < 1 || messages < 1)
+      throw new IllegalArgumentException("Read budget must be positive");
+    this.readBudgetBytes = bytes;
+    this.readBudgetMessages = messages;
+  }
+
+  /**
+   * Sets how large the receive buffer may grow to hold a partial message. A
+   * message that does not fit is reported with
+   * <code>Callback.garbledMessage()</code> and the connection is closed. The
+   * default is <code>DEFAULT_MAX_RECEIVE_BUFFER_SIZE</code>.
+   */
+  public void setMaxReceiveBufferSize(int bytes) {
+    if (bytes < RX_BUFFER_SIZE)
+      throw new IllegalArgumentException("Maximum receive buffer size must be at least " + RX_BUFFER_SIZE);
+    this.maxRxBufferSize = bytes;
+  }
+
+  /**
+   * Limits the number of messages this connection dispatches to
+   * <code>demand</code> more, until <code>request()</code> adds to it. While
+   * there is no demand, the connection stops reading from the socket, so the
+   * sender is held back by TCP flow control, and received messages that have
+   * not been dispatched stay in the receive buffer unparsed. The default is
+   * <code>Long.MAX_VALUE</code>, which means no limit.
+   */
+  public void setDemand(long demand) {
+    if (demand < 0)
+      throw new IllegalArgumentException("Demand must not be negative");
+    this.demand = 0;
+    updateInterestOps();
+    if (demand > 0)
+      request(demand);
+  }
+
+  /**
+   * Allows this connection to dispatch <code>n</code> more messages. If the
+   * connection was out of demand, it dispatches messages it has already
+   * received right away, unless it is being called from
+   * <code>Callback.messages()</code>, and resumes reading.
+   */
+  public void request(long n) {
+    if (n < 1)
+      throw new IllegalArgumentException("Request must be positive");
+    boolean resume = demand == 0;
+    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+    if (!resume || closing)
+      return;
+    updateInterestOps();
+    if (dispatching)
+      return;
     try {
-      len = channel.read(rxBuffer);
+      deliver();
     } catch (IOException e) {
-      len = -1;
+      closeNow();
+      return;
+    }
+    if (!closing && !txQueue.isEmpty())
+      flushOrClose();
+  }
+
+  boolean hasDemand() {
+    return demand > 0;
+  }
+
+  /**
+   * Sets a task to run whenever the transmit queue drains after the socket
+   * stopped accepting data, for example to produce more data to send.
+   */
+  public void setDrainListener(Runnable drainListener) {
+    this.drainListener = drainListener;
+  }
+
+  @Override public void read() throws IOException {
+    if (closing)
+      return;
+    if (demand == 0) {
+      updateInterestOps();
+      return;
     }
-    if (len > 0) {
-      Iterator<T> messages = parse();
-      if (messages.hasNext()) {
-        callback.messages(this, messages);
+    int bytesRead = 0;
+    int messagesRead = 0;
+    ByteBuffer target = codec != null ? codecRxBuffer : rxBuffer;
+    while (true) {
+      int len;
+      try {
+        len = input.read(target);
+      } catch (IOException e) {
+        len = -1;
+      }
+      if (len < 0) {
+        close();
+        return;
+      }
+      if (len == 0)
+        break;
+
+      if (capture != null)
+        capture.record(target, target.position() - len, len);
+      metrics.add(BYTES_IN, len);
+      boolean drained = target.hasRemaining();
+      bytesRead += len;
+      if (codec != null && !decode())
+        return;
+      messagesRead += deliver();
+      if (isClosed())
+        return;
+      if (demand == 0) {
+        updateInterestOps();
+        break;
+      }
+
+      /*
+       * A partial message fills the receive buffer, or is known to be longer
+       * than the buffer.
+       */
+      if (!rxBuffer.hasRemaining() || parseState.length() > rxBuffer.capacity()) {
+        if (!growRxBuffer(Math.max(parseState.length() - rxBuffer.position(), 1)))
+          return;
+        if (codec == null)
+          target = rxBuffer;
+      }
+
+      if (drained || bytesRead >= readBudgetBytes || messagesRead >= readBudgetMessages)
+        break;
+    }
+
+    /*
+     * A buffer grown for a large message goes back to its initial size once
+     * the message has been dispatched.
+     */
+    if (rxBuffer.position() == 0 && rxBuffer.capacity() > RX_BUFFER_SIZE)
+      rxBuffer = ByteBuffer.allocate(RX_BUFFER_SIZE);
+    if (!txQueue.isEmpty())
+      flushOrClose();
+  }
+
+  int rxBufferCapacity() {
+    return rxBuffer.capacity();
+  }
+
+  /*
+   * Parses and dispatches received messages for as long as there is demand
+   * for them, and returns the number of messages dispatched.
+   */
+  private int deliver() throws IOException {
+    int result = 0;
+    while (true) {
+      boolean limited = parse();
+      result += dispatch();
+      rxBuffer.compact();
+      if (!limited || demand == 0 || isClosed())
+        return result;
+    }
+  }
+
+  private int dispatch() {
+    int count = batch.size();
+    if (count == 0)
+      return 0;
+
+    metrics.add(MESSAGES_IN, count);
+    if (demand != Long.MAX_VALUE)
+      demand -= count;
+    Probe probe = probe();
+    if (probe != null && count >= probe.largeBatchThreshold())
+      probe.largeBatch(this, count);
+    dispatching = true;
+    try {
+      callback.messages(this, batch.iterator());
+    } finally {
+      dispatching = false;
+      if (messagePool != null)
+        batch.release(messagePool);
+      batch.clear();
+    }
+    return count;
+  }
+
+  private boolean decode() {
+    codecRxBuffer.flip();
+    try {
+      int required;
+      while ((required = codec.decode(codecRxBuffer, rxBuffer)) > 0) {
+        if (!growRxBuffer(required))
+          return false;
       }
-    } else if (len < 0) {
+    } catch (GarbledMessageException e) {
+      garbledMessage(e);
+      close();
+      return false;
+    } finally {
+      codecRxBuffer.compact();
+    }
+    return true;
+  }
+
+  private void garbledMessage(GarbledMessageException e) {
+    metrics.increment(GARBLED_MESSAGES);
+    Probe probe = probe();
+    if (probe != null)
+      probe.garbledMessage(this, e.getMessage());
+    callback.garbledMessage(this, e.getMessage(), e.getMessageData());
+  }
+
+  private Probe probe() {
+    return events != null ? events.probe() : null;
+  }
+
+  /*
+   * Grows the receive buffer to have at least required bytes remaining, or
+   * reports the partial message as garbled and closes the connection if the
+   * buffer would exceed its maximum size.
+   */
+  private boolean growRxBuffer(int required) {
+    long size = (long) rxBuffer.position() + required;
+    if (size > maxRxBufferSize) {
+      byte[] data = new byte[rxBuffer.position()];
+      rxBuffer.flip();
+      rxBuffer.get(data);
+      rxBuffer.clear();
+      garbledMessage(new GarbledMessageException("Message exceeds receive buffer size: " + maxRxBufferSize, data));
       close();
+      return false;
     }
+    ByteBuffer newBuffer = ByteBuffer.allocate((int) Math.min(Math.max(rxBuffer.capacity() * 2L, size), maxRxBufferSize));
+    rxBuffer.flip();
+    newBuffer.put(rxBuffer);
+    rxBuffer = newBuffer;
+    return true;
   }
 
-  private Iterator<T> parse() throws IOException {
+  /*
+   * Returns true if parsing stopped because the batch reached the demand.
+   */
+  private boolean parse() throws IOException {
     rxBuffer.flip();
-    List<T> result = new ArrayList<T>();
     while (rxBuffer.hasRemaining()) {
+      if (batch.size() >= demand)
+        return true;
       rxBuffer.mark();
       try {
-        result.add(parser.parse(rxBuffer));
+        if (resumableParser != null) {
+          batch.add(resumableParser.parse(rxBuffer, parseState));
+          parseState.reset();
+        } else {
+          batch.add(parser.parse(rxBuffer));
+        }
       } catch (PartialMessageException e) {
         rxBuffer.reset();
         break;
       } catch (GarbledMessageException e) {
-        callback.garbledMessage(this, e.getMessage(), e.getMessageData());
+        parseState.reset();
+        garbledMessage(e);
       }
     }
-    rxBuffer.compact();
-    return result.iterator();
+    return false;
   }
 
   public void send(byte[] byteArray) {
@@ -116,73 +570,341 @@ public class Connection<T> implements EventSource {
   }
 
   public void send(ByteBuffer buffer) {
+    send(buffer, Priority.NORMAL);
+  }
+
+  /**
+   * Sends the contents of <code>buffer</code> in the lane for
+   * <code>priority</code>.
+   *
+   * @throws IllegalStateException
+   *           if <code>priority</code> is urgent and the connection uses
+   *           compression.
+   */
+  public void send(ByteBuffer buffer, Priority priority) {
+    if (closing)
+      return;
+    TransmitQueue queue = queue(priority);
+    if (codec != null)
+      compress(buffer, queue);
+    else
+      queue.add(buffer);
+    queue.endOfMessage();
+    metrics.increment(MESSAGES_OUT);
     callback.sent(buffer);
-    txBuffers.add(buffer);
-    if (selectionKey == null)
+    if (selectionKey == null && !replaying)
+      throw new IllegalStateException("Connection is not registered");
+    if (!dispatching)
+      flushOrClose();
+  }
+
+  /**
+   * Sends the contents of <code>buffer</code> without copying them. The
+   * connection holds a reference to <code>buffer</code> until its contents
+   * have been written to the socket; the caller keeps its own reference.
+   *
+   * @see ConnectionGroup
+   */
+  public void send(SharedBuffer buffer) {
+    if (closing)
+      return;
+    if (selectionKey == null && !replaying)
+      throw new IllegalStateException("Connection is not registered");
+
+    ByteBuffer view = buffer.buffer().duplicate();
+    if (codec != null)
+      compress(view, txQueue);
+    else
+      txQueue.add(view, buffer.retain());
+    txQueue.endOfMessage();
+    metrics.increment(MESSAGES_OUT);
+    callback.sent(view);
+    if (!dispatching)
+      flushOrClose();
+  }
+
+  /**
+   * Encodes <code>message</code> with <code>encoder</code> directly into the
+   * outbound buffer of this connection and sends it. Messages that cannot be
+   * written to the socket right away, as well as messages sent from
+   * <code>Callback.messages()</code>, share the outbound buffer and are
+   * written out together with as few writes as possible.
+   * <p>
+   * The buffer passed to <code>Callback.sent()</code> is a view of the
+   * outbound buffer that is only valid for the duration of the call.
+   */
+  public <M> void send(M message, MessageEncoder<? super M> encoder) {
+    send(message, encoder, Priority.NORMAL);
+  }
+
+  /**
+   * Encodes <code>message</code> with <code>encoder</code> and sends it in the
+   * lane for <code>priority</code>. The urgent lane is meant for occasional
+   * time-critical messages such as cancels or heartbeats; it is unbounded and
+   * does not conflate.
+   *
+   * @throws IllegalStateException
+   *           if <code>priority</code> is urgent and the connection uses
+   *           compression, whose frames must reach the peer in order.
+   */
+  public <M> void send(M message, MessageEncoder<? super M> encoder, Priority priority) {
+    if (closing)
+      return;
+    if (selectionKey == null && !replaying)
       throw new IllegalStateException("Connection is not registered");
+
+    TransmitQueue queue = queue(priority);
+    if (codec != null) {
+      ByteBuffer buffer = encodeUncompressed(message, encoder);
+      compress(buffer, queue);
+      callback.sent(buffer);
+    } else {
+      queue.encode(message, encoder, callback);
+    }
+    queue.endOfMessage();
+    metrics.increment(MESSAGES_OUT);
+    if (!dispatching)
+      flushOrClose();
+  }
+
+  private <M> ByteBuffer encodeUncompressed(M message, MessageEncoder<? super M> encoder) {
+    while (true) {
+      codecTxBuffer.clear();
+      try {
+        encoder.encode(message, codecTxBuffer);
+        codecTxBuffer.flip();
+        return codecTxBuffer;
+      } catch (BufferOverflowException e) {
+        codecTxBuffer = ByteBuffer.allocate(codecTxBuffer.capacity() * 2);
+      }
+    }
+  }
+
+  private TransmitQueue queue(Priority priority) {
+    if (priority == Priority.NORMAL)
+      return txQueue;
+    if (codec != null)
+      throw new IllegalStateException("Priority lanes are not supported with compression");
+    if (lanes == null) {
+      lanes = new LanedQueue(txQueue);
+      txQueue = lanes;
+    }
+    return lanes.urgent();
+  }
+
+  private void compress(ByteBuffer buffer, TransmitQueue queue) {
+    int position = buffer.position();
+    try {
+      while (buffer.hasRemaining())
+        queue.encode(buffer, codecEncoder, null);
+    } catch (BufferOverflowException e) {
+      /*
+       * Frames that were already queued cannot be taken back, so the peer
+       * would see a truncated message.
+       */
+      if (buffer.position() != position)
+        closeNow();
+      throw e;
+    } finally {
+      buffer.position(position);
+    }
+  }
+
+  private void flushOrClose() {
     try {
       flush();
     } catch (IOException e) {
-      close();
+      closeNow();
     }
   }
 
+  /**
+   * Writes queued data, or completes the connection attempt of a connection
+   * created with <code>open()</code>.
+   */
   @Override public void write() throws IOException {
+    if (connecting) {
+      finishConnect();
+      return;
+    }
+    flushOrClose();
+    if (!txQueue.isEmpty() || closed)
+      return;
+    if (closing)
+      closeNow();
+    else
+      updateInterestOps();
+  }
+
+  private void finishConnect() {
     try {
-      flush();
+      if (!((SocketChannel) channel).finishConnect())
+        return;
     } catch (IOException e) {
-      close();
+      closeNow();
+      return;
     }
-    if (txBuffers.isEmpty())
-      selectionKey.interestOps(SelectionKey.OP_READ);
+    connecting = false;
+    updateInterestOps();
+    callback.connected(this);
+    if (!txQueue.isEmpty() && !closing)
+      flushOrClose();
   }
 
+  /**
+   * Sets how long <code>close()</code> keeps writing queued data to a peer
+   * that does not read it fast enough. The default is
+   * <code>DEFAULT_LINGER_MILLIS</code>.
+   */
+  public void setLinger(long linger, TimeUnit unit) {
+    if (linger < 0)
+      throw new IllegalArgumentException("Linger must not be negative");
+    this.lingerNanos = unit.toNanos(linger);
+  }
+
+  /**
+   * Closes this connection once the data queued for sending has been written.
+   * The connection stops reading right away and appears closed to the
+   * application, but stays registered and drains its queue as the socket
+   * becomes writable. If the queue has not drained when the linger time set
+   * with <code>setLinger()</code> expires, the rest of the data is dropped as
+   * with <code>closeNow()</code>. <code>Callback.closed()</code> is called
+   * once the connection has actually been closed.
+   * <p>
+   * Data sent once the connection is closing is dropped. Calling this method
+   * on a connection that is closing or closed has no effect.
+   */
   public void close() {
+    if (closing)
+      return;
+    closing = true;
+    if (connecting) {
+      closeNow();
+      return;
+    }
+
+    try {
+      flush();
+    } catch (IOException e) {
+      closeNow();
+      return;
+    }
+    if (txQueue.isEmpty() || selectionKey == null || events == null || lingerNanos == 0) {
+      closeNow();
+      return;
+    }
+    updateInterestOps();
+    lingerTimeout = events.schedule(lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Closes this connection immediately. Data that has not been written yet
+   * is dropped, and the socket is reset rather than shut down in order so
+   * that the peer can tell that it did not receive everything.
+   */
+  public void closeNow() {
+    if (closed)
+      return;
+    closed = true;
+    closing = true;
+
+    if (lingerTimeout != null) {
+      lingerTimeout.cancel();
+      lingerTimeout = null;
+    }
+
+    Probe probe = probe();
+    if (probe != null)
+      probe.closed(this);
+
     if (events != null)
       events.unregister(this);
 
     callback.closed(this);
 
-    try {
-      while (!txBuffers.isEmpty())
-        flush();
-    } catch (IOException e) {
+    if (admissionControl != null) {
+      admissionControl.release();
+      admissionControl = null;
     }
 
-    SocketChannel sc = (SocketChannel) selectionKey.channel();
-    SocketChannels.close(sc);
+    boolean abort = !txQueue.isEmpty();
+    txQueue.discard();
+    metrics.set(TX_QUEUE_BYTES, 0);
+
+    if (input != channel)
+      closeQuietly(input);
+    if (output != channel && output != input)
+      closeQuietly(output);
+
+    if (selectionKey == null)
+      return;
+
+    SelectableChannel sc = selectionKey.channel();
+    if (sc instanceof SocketChannel && abort)
+      SocketChannels.abort((SocketChannel) sc);
+    else if (sc instanceof SocketChannel)
+      SocketChannels.close((SocketChannel) sc);
+    else
+      closeQuietly(sc);
 
     selectionKey.attach(null);
     selectionKey.cancel();
     selectionKey.selector().wakeup();
   }
 
-  private void flush() throws IOException {
-    while (!txBuffers.isEmpty()) {
-      ByteBuffer txBuffer = txBuffers.get(0);
-      if (!write(txBuffer)) {
-        selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-        selectionKey.selector().wakeup();
-        break;
-      }
-      txBuffers.remove(0);
+  private static void closeQuietly(Channel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
     }
   }
 
-  private boolean write(ByteBuffer txBuffer) throws IOException {
-    while (txBuffer.hasRemaining()) {
-      if (channel.write(txBuffer) == 0) {
-        return false;
-      }
+  private void flush() throws IOException {
+    if (connecting)
+      return;
+    long written = txQueue.bytesWritten;
+    boolean drained = txQueue.flush(output);
+    written = txQueue.bytesWritten - written;
+    metrics.add(BYTES_OUT, written);
+    metrics.set(TX_QUEUE_BYTES, txQueue.pendingBytes());
+    Probe probe = probe();
+    if (probe != null) {
+      if (!drained && written > 0)
+        probe.partialWrite(this, written, txQueue.pendingBytes());
+      if (drained == blocked)
+        probe.backpressure(this, !drained, txQueue.pendingBytes());
     }
-    return true;
+    boolean wasBlocked = blocked;
+    blocked = !drained;
+    if (!drained && selectionKey != null) {
+      updateInterestOps();
+      selectionKey.selector().wakeup();
+    }
+    if (drained && wasBlocked && drainListener != null && !closing)
+      drainListener.run();
+  }
+
+  private void updateInterestOps() {
+    if (selectionKey == null || connecting || closed)
+      return;
+    int ops = 0;
+    if (!closing && demand > 0)
+      ops |= SelectionKey.OP_READ;
+    if (!txQueue.isEmpty())
+      ops |= SelectionKey.OP_WRITE;
+    selectionKey.interestOps(ops);
   }
 
   @Override public EventSource accept() throws IOException {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Returns <code>true</code> once <code>close()</code> or
+   * <code>closeNow()</code> has been called, even if queued data is still
+   * being written, or if the channel has been closed.
+   */
   @Override public boolean isClosed() {
-    return !channel.isOpen();
+    return closing || !input.isOpen();
   }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of connections that receive the same outbound data. A broadcast
+ * message is encoded once into a <code>SharedBuffer</code> and every
+ * connection queues a view of it, so the cost of a broadcast is dominated by
+ * the socket writes rather than by copying. Shared buffers are reused once
+ * the slowest connection has written them.
+ * <p>
+ * Connections that have been closed are dropped from the group on the next
+ * broadcast. Connections that use a transmit ring and have no room left for a
+ * broadcast are closed immediately, dropping their queued data, so that one
+ * slow subscriber neither holds back nor silently misses data that the other
+ * subscribers see.
+ */
+public class ConnectionGroup {
+  private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+  private final List<Connection<?>> connections = new ArrayList<Connection<?>>();
+  private final ArrayDeque<SharedBuffer> freeBuffers = new ArrayDeque<SharedBuffer>();
+  private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+  public void add(Connection<?> connection) {
+    connections.add(connection);
+  }
+
+  public boolean remove(Connection<?> connection) {
+    return connections.remove(connection);
+  }
+
+  public int size() {
+    return connections.size();
+  }
+
+  /**
+   * Encodes <code>message</code> with <code>encoder</code> once and sends it
+   * to every connection in this group.
+   */
+  public <M> void broadcast(M message, MessageEncoder<? super M> encoder) {
+    SharedBuffer buffer = encode(message, encoder);
+    try {
+      broadcast(buffer);
+    } finally {
+      buffer.release();
+    }
+  }
+
+  /**
+   * Sends the contents of <code>buffer</code> to every connection in this
+   * group. The caller keeps its reference to <code>buffer</code>.
+   */
+  public void broadcast(SharedBuffer buffer) {
+    int i = 0;
+    while (i < connections.size()) {
+      Connection<?> connection = connections.get(i);
+      if (!connection.isClosed()) {
+        try {
+          connection.send(buffer);
+        } catch (BufferOverflowException e) {
+          connection.closeNow();
+        }
+      }
+      if (connection.isClosed()) {
+        int last = connections.size() - 1;
+        connections.set(i, connections.get(last));
+        connections.remove(last);
+      } else {
+        i++;
+      }
+    }
+  }
+
+  private <M> SharedBuffer encode(M message, MessageEncoder<? super M> encoder) {
+    while (true) {
+      SharedBuffer result = acquire();
+      ByteBuffer buffer = result.buffer();
+      buffer.clear();
+      try {
+        encoder.encode(message, buffer);
+        buffer.flip();
+        return result;
+      } catch (BufferOverflowException e) {
+        bufferSize = buffer.capacity() * 2;
+      }
+    }
+  }
+
+  private SharedBuffer acquire() {
+    SharedBuffer result;
+    while ((result = freeBuffers.poll()) != null) {
+      if (result.buffer().capacity() >= bufferSize) {
+        result.reset();
+        return result;
+      }
+    }
+    return new SharedBuffer(ByteBuffer.allocateDirect(bufferSize), freeBuffers);
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A set of client connections to one or more endpoints that messages are
+ * spread across. Each send goes to one member picked by the selection
+ * policy, skipping members that are not connected or whose transmit queue
+ * holds more than the maximum backlog. Members that close are replaced with
+ * a new non-blocking connection to the same endpoint after the reconnect
+ * delay.
+ * <p>
+ * All members share one <code>Connection.Callback</code>:
+ *
+ * <pre>
+ *   ConnectionPool&lt;Response&gt; pool = new ConnectionPool&lt;Response&gt;(events, parserFactory, callback);
+ *   pool.add(primary, 4);
+ *   pool.add(replica, 4);
+ *   pool.send(request, encoder);
+ * </pre>
+ *
+ * The least outstanding policy assumes that every message sent is answered
+ * by one message and counts messages sent on a member minus messages the
+ * callback has taken from its iterator.
+ */
+public class ConnectionPool<T> {
+  public interface ParserFactory<T> {
+    MessageParser<T> newParser();
+  }
+
+  public enum Selection {
+    ROUND_ROBIN, LEAST_OUTSTANDING
+  }
+
+  public static final long DEFAULT_RECONNECT_DELAY_MILLIS = 1000;
+
+  private final Events events;
+  private final ParserFactory<T> parserFactory;
+  private final Connection.Callback<T> callback;
+  private final List<Member> members = new ArrayList<Member>();
+  private Selection selection = Selection.ROUND_ROBIN;
+  private long maxBacklog = Long.MAX_VALUE;
+  private long reconnectDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RECONNECT_DELAY_MILLIS);
+  private int next;
+  private boolean closed;
+
+  public ConnectionPool(Events events, ParserFactory<T> parserFactory, Connection.Callback<T> callback) {
+    this.events = events;
+    this.parserFactory = parserFactory;
+    this.callback = callback;
+  }
+
+  public void setSelection(Selection selection) {
+    this.selection = selection;
+  }
+
+  /**
+   * Sets the number of queued bytes above which a member is skipped.
+   */
+  public void setMaxBacklog(long maxBacklog) {
+    this.maxBacklog = maxBacklog;
+  }
+
+  public void setReconnectDelay(long delay, TimeUnit unit) {
+    this.reconnectDelayNanos = unit.toNanos(delay);
+  }
+
+  /**
+   * Opens <code>count</code> connections to <code>endpoint</code>. Connection
+   * attempts that fail are retried after the reconnect delay.
+   */
+  public void add(InetSocketAddress endpoint, int count) {
+    if (closed)
+      throw new IllegalStateException("Pool is closed");
+    for (int i = 0; i < count; i++) {
+      Member member = new Member(endpoint);
+      members.add(member);
+      member.open();
+    }
+  }
+
+  public int size() {
+    return members.size();
+  }
+
+  /**
+   * Returns the number of members that are connected.
+   */
+  public int connected() {
+    int result = 0;
+    for (int i = 0; i < members.size(); i++) {
+      if (members.get(i).connected)
+        result++;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the member the next message would be sent on, or
+   * <code>null</code> if no member is connected with a backlog below the
+   * maximum.
+   */
+  public Connection<T> select() {
+    Member member = selectMember();
+    return member != null ? member.connection : null;
+  }
+
+  /**
+   * Sends <code>message</code> on the selected member and returns
+   * <code>false</code> if no member was available.
+   */
+  public <M> boolean send(M message, MessageEncoder<? super M> encoder) {
+    Member member = selectMember();
+    if (member == null)
+      return false;
+    member.outstanding++;
+    member.connection.send(message, encoder);
+    return true;
+  }
+
+  /**
+   * Closes all members and stops replacing them.
+   */
+  public void close() {
+    closed = true;
+    for (int i = 0; i < members.size(); i++)
+      members.get(i).close();
+  }
+
+  private Member selectMember() {
+    int size = members.size();
+    if (selection == Selection.ROUND_ROBIN) {
+      for (int i = 0; i < size; i++) {
+        Member member = members.get((next + i) % size);
+        if (member.isAvailable()) {
+          next = (next + i + 1) % size;
+          return member;
+        }
+      }
+      return null;
+    }
+    Member result = null;
+    for (int i = 0; i < size; i++) {
+      Member member = members.get(i);
+      if (member.isAvailable() && (result == null || member.outstanding < result.outstanding))
+        result = member;
+    }
+    return result;
+  }
+
+  private class Member implements Connection.Callback<T>, Runnable {
+    private final InetSocketAddress endpoint;
+    private final CountingIterator<T> messages = new CountingIterator<T>();
+    private Connection<T> connection;
+    private Timeout reconnect;
+    private boolean connected;
+    private long outstanding;
+
+    Member(InetSocketAddress endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    boolean isAvailable() {
+      return connected && !connection.isClosed() && connection.pendingBytes() <= maxBacklog;
+    }
+
+    void open() {
+      try {
+        connection = Connection.open(endpoint, parserFactory.newParser(), this);
+        events.register(connection);
+      } catch (IOException e) {
+        if (connection != null)
+          connection.closeNow();
+        else
+          scheduleReconnect();
+      }
+    }
+
+    void close() {
+      if (reconnect != null) {
+        reconnect.cancel();
+        reconnect = null;
+      }
+      if (connection != null)
+        connection.close();
+    }
+
+    @Override public void run() {
+      reconnect = null;
+      if (!closed)
+        open();
+    }
+
+    @Override public void connected(Connection<T> connection) {
+      connected = true;
+      outstanding = 0;
+      callback.connected(connection);
+    }
+
+    @Override public void messages(Connection<T> connection, Iterator<T> messages) {
+      this.messages.delegate = messages;
+      this.messages.count = 0;
+      try {
+        callback.messages(connection, this.messages);
+      } finally {
+        this.messages.delegate = null;
+        outstanding = Math.max(outstanding - this.messages.count, 0);
+      }
+    }
+
+    @Override public void closed(Connection<T> connection) {
+      boolean wasConnected = connected;
+      connected = false;
+      this.connection = null;
+      if (wasConnected)
+        callback.closed(connection);
+      scheduleReconnect();
+    }
+
+    @Override public void garbledMessage(Connection<T> connection, String message, byte[] data) {
+      callback.garbledMessage(connection, message, data);
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+      callback.sent(buffer);
+    }
+
+    private void scheduleReconnect() {
+      if (!closed)
+        reconnect = events.schedule(this, reconnectDelayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private static class CountingIterator<T> implements Iterator<T> {
+    Iterator<T> delegate;
+    int count;
+
+    @Override public boolean hasNext() {
+      return delegate.hasNext();
+    }
+
+    @Override public T next() {
+      T result = delegate.next();
+      count++;
+      return result;
+    }
+
+    @Override public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Parses frames that are terminated by a delimiter of one or more bytes, such
+ * as lines of a text protocol. Each parsed frame is a slice of the receive
+ * buffer without the delimiter, so frames are not copied. Slices are only
+ * valid until <code>Callback.messages()</code> returns.
+ * <p>
+ * The delimiter is searched for eight bytes at a time: each 64-bit word of the
+ * buffer is compared against the first delimiter byte in all byte lanes at
+ * once, and only candidate positions are checked byte by byte. When a frame
+ * arrives over several reads, the search resumes where the previous one
+ * stopped.
+ */
+public class DelimiterParser implements ResumableMessageParser<ByteBuffer> {
+  private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+  private static final long ONES = 0x0101010101010101L;
+
+  private final byte[] delimiter;
+  private final long pattern;
+  private int maxFrameLength = Integer.MAX_VALUE;
+
+  public DelimiterParser(byte... delimiter) {
+    if (delimiter.length == 0)
+      throw new IllegalArgumentException("Delimiter must not be empty");
+    this.delimiter = delimiter.clone();
+    this.pattern = (delimiter[0] & 0xffL) * ONES;
+  }
+
+  /**
+   * Sets the maximum length of a frame without its delimiter. If no delimiter
+   * follows within <code>maxFrameLength</code> bytes, the bytes are skipped
+   * and the parser throws <code>GarbledMessageException</code>.
+   */
+  public void setMaxFrameLength(int maxFrameLength) {
+    if (maxFrameLength < 0)
+      throw new IllegalArgumentException("Maximum frame length must not be negative");
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  @Override public ByteBuffer parse(ByteBuffer buffer) throws GarbledMessageException, PartialMessageException {
+    return parse(buffer, null);
+  }
+
+  @Override public ByteBuffer parse(ByteBuffer buffer, ParseState state) throws GarbledMessageException,
+      PartialMessageException {
+    int start = buffer.position();
+    long window = (long) maxFrameLength + delimiter.length;
+    int limit = (int) Math.min(buffer.limit(), start + window);
+    int from = state != null ? start + Math.max(state.scanned() - (delimiter.length - 1), 0) : start;
+    int end = indexOf(buffer, from, limit);
+    if (end < 0) {
+      if (limit - start == window) {
+        buffer.position(start + maxFrameLength);
+        throw new GarbledMessageException("Frame is longer than " + maxFrameLength + " bytes");
+      }
+      if (state != null)
+        state.setScanned(limit - start);
+      throw new PartialMessageException();
+    }
+    int bufferLimit = buffer.limit();
+    buffer.limit(end);
+    ByteBuffer result = buffer.slice();
+    buffer.limit(bufferLimit);
+    buffer.position(end + delimiter.length);
+    return result;
+  }
+
+  /**
+   * Returns the index of the first delimiter that lies completely within
+   * <code>[from, to)</code>, or -1.
+   */
+  int indexOf(ByteBuffer buffer, int from, int to) {
+    int last = to - delimiter.length;
+    for (int i = from; i <= last; i++) {
+      i = indexOfFirst(buffer, i, last + 1);
+      if (i < 0)
+        return -1;
+      if (matchesAt(buffer, i))
+        return i;
+    }
+    return -1;
+  }
+
+  private int indexOfFirst(ByteBuffer buffer, int from, int to) {
+    boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      long x = buffer.getLong(i) ^ pattern;
+      /*
+       * Sets the high bit of every byte of x that is zero, without carries
+       * between bytes, so the lowest addressed match is exact.
+       */
+      long found = ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+      if (found != 0) {
+        int lane = bigEndian ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found);
+        return i + (lane >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      if (buffer.get(i) == delimiter[0])
+        return i;
+    }
+    return -1;
+  }
+
+  private boolean matchesAt(ByteBuffer buffer, int index) {
+    for (int i = 1; i < delimiter.length; i++) {
+      if (buffer.get(index + i) != delimiter[i])
+        return false;
+    }
+    return true;
+  }
+}
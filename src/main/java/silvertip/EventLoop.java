@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.IOException;
+
+/**
+ * Runs an <code>Events</code> dispatch loop on a dedicated thread that can be
+ * pinned to a set of CPUs, so that the scheduler does not migrate the loop
+ * between cores. Pinning is best effort: if it is not supported on the
+ * platform, the loop runs unpinned and <code>isPinned()</code> returns
+ * <code>false</code>.
+ * <p>
+ * The optional start hook runs on the loop thread after pinning and before the
+ * first dispatch. Event sources and buffers created from the hook, or later
+ * from callbacks on the loop thread, have their memory first touched by the
+ * pinned thread, which places it on the local NUMA node under the default
+ * first-touch policy. This includes the direct buffers that
+ * <code>Connection</code> allocates lazily for encoding and transmit rings.
+ *
+ * <pre>
+ *   EventLoop loop = new EventLoop(Events.open(), "feed-handler");
+ *   loop.setAffinity(3);
+ *   loop.setStartHook(new Runnable() {
+ *     public void run() {
+ *       // Open and register connections here.
+ *     }
+ *   });
+ *   loop.start();
+ * </pre>
+ */
+public class EventLoop implements Runnable {
+  private static final long DEFAULT_TIMEOUT_MSEC = 100;
+
+  private final Events events;
+  private final Thread thread;
+  private int[] cpus = new int[0];
+  private long timeout = DEFAULT_TIMEOUT_MSEC;
+  private Runnable startHook;
+  private volatile boolean pinned;
+  private volatile boolean stopped;
+
+  public EventLoop(Events events, String name) {
+    this.events = events;
+    this.thread = new Thread(this, name);
+  }
+
+  public Events events() {
+    return events;
+  }
+
+  public Thread thread() {
+    return thread;
+  }
+
+  /**
+   * Sets the CPUs the loop thread may run on. Must be called before
+   * <code>start()</code>.
+   */
+  public void setAffinity(int... cpus) {
+    Affinity.cpuList(cpus);
+    this.cpus = cpus.clone();
+  }
+
+  public void setStartHook(Runnable startHook) {
+    this.startHook = startHook;
+  }
+
+  /**
+   * Sets the timeout, in milliseconds, of a single <code>Events.process</code>
+   * call. The timeout bounds how long <code>stop()</code> may take if the
+   * selector is not woken up.
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public boolean isPinned() {
+    return pinned;
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  public void stop() {
+    stopped = true;
+    events.selector().wakeup();
+  }
+
+  public void join() throws InterruptedException {
+    thread.join();
+  }
+
+  @Override public void run() {
+    if (cpus.length > 0)
+      pinned = Affinity.pinCurrentThread(cpus);
+
+    if (startHook != null)
+      startHook.run();
+
+    try {
+      while (!stopped)
+        events.process(timeout);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -25,6 +25,12 @@ public interface EventSource {
 
   void write() throws IOException;
 
+  /**
+   * Accepts one pending connection and returns its event source, or
+   * <code>null</code> if there is nothing more to accept. <code>Events</code>
+   * calls this method until it returns <code>null</code> whenever the source
+   * is acceptable, so it must not block.
+   */
   EventSource accept() throws IOException;
 
   boolean isClosed();
@@ -20,8 +20,11 @@ import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -68,9 +71,25 @@ import java.util.concurrent.TimeUnit;
  * message at the end of the buffer.
  */
 public class Events {
-  private List<EventSource> sources = new ArrayList<EventSource>();
+  private static final int ITERATIONS = 0;
+  private static final int SELECTED_KEYS = 1;
+  private static final int TIMEOUTS_RUN = 2;
+  private static final int REGISTERED = 3;
+  private static final int UNREGISTERED = 4;
+  private static final int SOURCES = 5;
+
+  private static final int MIN_TIMEOUTS_TO_PURGE = 64;
+
+  private Set<EventSource> sources = new HashSet<EventSource>();
   private List<EventSource> newSources = new ArrayList<EventSource>();
+  private List<PolledEventSource> polledSources = new ArrayList<PolledEventSource>();
+  private PriorityQueue<Timeout> timeouts = new PriorityQueue<Timeout>();
+  private long timeoutSequence;
+  private int cancelledTimeouts;
   private Selector selector;
+  private Probe probe;
+  private final Metrics metrics = new Metrics("Iterations", "SelectedKeys", "TimeoutsRun", "Registered",
+      "Unregistered", "Sources");
 
   public static Events open() throws IOException {
     return new Events(Selector.open());
@@ -88,23 +107,111 @@ public class Events {
     return selector;
   }
 
+  /**
+   * Returns the counters of this event loop. <code>Iterations</code> counts
+   * every select, so sampling it twice gives the loop iteration rate.
+   * <code>Registered</code> and <code>Unregistered</code> count event sources,
+   * including accepted and closed connections, and <code>Sources</code> is
+   * the number currently registered.
+   */
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Installs <code>probe</code> for this event loop and the event sources
+   * registered to it, or removes the current probe if <code>probe</code> is
+   * <code>null</code>.
+   */
+  public void setProbe(Probe probe) {
+    this.probe = probe;
+  }
+
+  public Probe probe() {
+    return probe;
+  }
+
   public void register(EventSource source) throws IOException {
     SelectionKey result = source.register(this);
     result.attach(source);
     sources.add(source);
+    if (source instanceof PolledEventSource)
+      polledSources.add((PolledEventSource) source);
+    metrics.increment(REGISTERED);
+    metrics.set(SOURCES, sources.size());
   }
 
   public void unregister(EventSource source) {
-    sources.remove(source);
+    if (!sources.remove(source))
+      return;
+    if (source instanceof PolledEventSource)
+      polledSources.remove(source);
+    metrics.increment(UNREGISTERED);
+    metrics.set(SOURCES, sources.size());
+  }
+
+  /**
+   * Schedules <code>task</code> to run on the event loop thread after
+   * <code>delay</code>. Scheduled tasks keep <code>process()</code> and
+   * <code>processNow()</code> from returning <code>false</code> until they have
+   * run or have been cancelled.
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    Timeout result = new Timeout(this, task, System.nanoTime() + unit.toNanos(delay), timeoutSequence++);
+    timeouts.add(result);
+    return result;
+  }
+
+  /*
+   * Cancelled timeouts stay queued until they reach the head of the queue, or
+   * until they make up most of the queue and are purged all at once, so that
+   * cancelling is constant time.
+   */
+  void cancel(Timeout timeout) {
+    cancelledTimeouts++;
+    if (cancelledTimeouts > MIN_TIMEOUTS_TO_PURGE && cancelledTimeouts > timeouts.size() / 2)
+      purgeTimeouts();
+  }
+
+  private void purgeTimeouts() {
+    List<Timeout> pending = new ArrayList<Timeout>(timeouts.size() - cancelledTimeouts);
+    for (Timeout timeout : timeouts) {
+      if (!timeout.isCancelled())
+        pending.add(timeout);
+    }
+    timeouts = new PriorityQueue<Timeout>(pending);
+    cancelledTimeouts = 0;
+  }
+
+  /*
+   * Returns the pending timeout with the earliest deadline, or null.
+   */
+  private Timeout nextTimeout() {
+    Timeout timeout;
+    while ((timeout = timeouts.peek()) != null && timeout.isCancelled()) {
+      timeouts.poll();
+      cancelledTimeouts--;
+    }
+    return timeout;
   }
 
   public boolean process(long timeout) throws IOException {
     while (timeout > 0) {
       long start = System.nanoTime();
-      int numKeys = selector.select(timeout);
+      boolean polled = poll();
+      long selectTimeout = polled ? 0 : timeout;
+      Timeout next = nextTimeout();
+      if (next != null)
+        selectTimeout = Math.min(selectTimeout, millisUntil(next.deadline(), start));
+      if (selectTimeout > 0 && !prepareToBlock())
+        selectTimeout = 0;
+      int numKeys = selectTimeout > 0 ? selector.select(selectTimeout) : selector.selectNow();
       long end = System.nanoTime();
+      metrics.increment(ITERATIONS);
 
-      if (selector.keys().isEmpty())
+      int expired = runTimeouts(end);
+
+      if (selector.keys().isEmpty() && nextTimeout() == null)
         return false;
 
       if (numKeys > 0) {
@@ -112,6 +219,9 @@ public class Events {
         break;
       }
 
+      if (expired > 0 || polled)
+        break;
+
       timeout -= TimeUnit.NANOSECONDS.toMillis(end - start);
       if (timeout <= 0) {
         break;
@@ -121,9 +231,13 @@ public class Events {
   }
 
   public boolean processNow() throws IOException {
+    poll();
     int numKeys = selector.selectNow();
+    metrics.increment(ITERATIONS);
+
+    runTimeouts(System.nanoTime());
 
-    if (selector.keys().isEmpty())
+    if (selector.keys().isEmpty() && nextTimeout() == null)
       return false;
 
     if (numKeys > 0)
@@ -132,7 +246,50 @@ public class Events {
     return true;
   }
 
+  private boolean poll() throws IOException {
+    boolean result = false;
+    for (int i = polledSources.size() - 1; i >= 0; i--) {
+      if (i < polledSources.size() && polledSources.get(i).poll())
+        result = true;
+    }
+    return result;
+  }
+
+  private boolean prepareToBlock() {
+    for (int i = 0; i < polledSources.size(); i++) {
+      if (!polledSources.get(i).prepareToBlock())
+        return false;
+    }
+    return true;
+  }
+
+  private int runTimeouts(long now) {
+    int count = 0;
+    long sequenceLimit = timeoutSequence;
+    Timeout timeout;
+    while ((timeout = nextTimeout()) != null) {
+      if (timeout.deadline() - now > 0 || timeout.sequence() >= sequenceLimit)
+        break;
+      timeouts.poll();
+      timeout.run();
+      count++;
+    }
+    if (count > 0)
+      metrics.add(TIMEOUTS_RUN, count);
+    return count;
+  }
+
+  private static long millisUntil(long deadline, long now) {
+    long nanos = deadline - now;
+    if (nanos <= 0)
+      return 0;
+    return (nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
   private void dispatchMessages() throws IOException {
+    Probe probe = this.probe;
+    long start = probe != null ? System.nanoTime() : 0;
+    int keys = 0;
     Iterator<SelectionKey> it = selector.selectedKeys().iterator();
     while (it.hasNext()) {
       SelectionKey key = it.next();
@@ -141,11 +298,15 @@ public class Events {
       if (key.isValid()) {
         try {
           if (key.isAcceptable()) {
-            EventSource newSource = source.accept();
-            if (newSource != null)
+            EventSource newSource;
+            while ((newSource = source.accept()) != null)
               newSources.add(newSource);
           }
 
+          if (key.isConnectable()) {
+            source.write();
+          }
+
           if (key.isReadable()) {
             source.read();
           }
@@ -158,6 +319,13 @@ public class Events {
       }
 
       it.remove();
+      keys++;
+    }
+    metrics.add(SELECTED_KEYS, keys);
+    if (probe != null) {
+      long nanos = System.nanoTime() - start;
+      if (nanos >= probe.slowDispatchThresholdNanos())
+        probe.slowDispatch(nanos, keys);
     }
     for (int i = 0; i < newSources.size(); i++)
       register(newSources.get(i));
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A transmit queue with an urgent lane in front of the normal one. Urgent
+ * data is written as soon as the normal lane reaches a message boundary, so
+ * an urgent message waits for at most the rest of the message being written
+ * rather than for the whole backlog. Messages are never interleaved.
+ * <p>
+ * <code>add()</code> and <code>encode()</code> queue to the normal lane; the
+ * urgent lane is reached through <code>urgent()</code>.
+ */
+class LanedQueue extends TransmitQueue {
+  private final TransmitQueue urgent;
+  private final TransmitQueue normal;
+  private final BoundedChannel bounded = new BoundedChannel();
+
+  /*
+   * The urgent lane copies whenever the normal lane does, so that buffers can
+   * be reused as soon as send() returns in either lane.
+   */
+  LanedQueue(TransmitQueue normal) {
+    this.urgent = new BufferQueue(!(normal instanceof BufferQueue));
+    this.normal = normal;
+    this.bytesWritten = normal.bytesWritten;
+  }
+
+  TransmitQueue urgent() {
+    return urgent;
+  }
+
+  TransmitQueue normal() {
+    return normal;
+  }
+
+  @Override boolean isEmpty() {
+    return urgent.isEmpty() && normal.isEmpty();
+  }
+
+  @Override long pendingBytes() {
+    return urgent.pendingBytes() + normal.pendingBytes();
+  }
+
+  @Override void add(ByteBuffer buffer) {
+    normal.add(buffer);
+  }
+
+  @Override void add(ByteBuffer buffer, SharedBuffer owner) {
+    normal.add(buffer, owner);
+  }
+
+  @Override <M> void encode(M message, MessageEncoder<? super M> encoder, Connection.Callback<?> callback) {
+    normal.encode(message, encoder, callback);
+  }
+
+  @Override void endOfMessage() {
+    normal.endOfMessage();
+  }
+
+  @Override boolean flush(GatheringByteChannel channel) throws IOException {
+    try {
+      while (!urgent.isEmpty()) {
+        long remaining = normal.remainingInMessage();
+        if (remaining == 0) {
+          if (!urgent.flush(channel))
+            return false;
+          break;
+        }
+        bounded.channel = channel;
+        bounded.remaining = remaining;
+        normal.flush(bounded);
+        if (normal.remainingInMessage() != 0)
+          return false;
+      }
+      return normal.flush(channel);
+    } finally {
+      bounded.channel = null;
+      bytesWritten = urgent.bytesWritten + normal.bytesWritten;
+    }
+  }
+
+  @Override void discard() {
+    urgent.discard();
+    normal.discard();
+  }
+
+  /**
+   * Passes at most <code>remaining</code> bytes on to <code>channel</code>.
+   */
+  private static class BoundedChannel implements GatheringByteChannel {
+    GatheringByteChannel channel;
+    long remaining;
+
+    @Override public int write(ByteBuffer src) throws IOException {
+      if (remaining == 0)
+        return 0;
+      int limit = src.limit();
+      if (src.remaining() > remaining)
+        src.limit(src.position() + (int) remaining);
+      int written;
+      try {
+        written = channel.write(src);
+      } finally {
+        src.limit(limit);
+      }
+      remaining -= written;
+      return written;
+    }
+
+    @Override public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      long total = 0;
+      int count = 0;
+      int cut = -1;
+      int cutLimit = 0;
+      while (count < length && total < remaining) {
+        ByteBuffer src = srcs[offset + count++];
+        if (total + src.remaining() > remaining) {
+          cut = offset + count - 1;
+          cutLimit = src.limit();
+          src.limit(src.position() + (int) (remaining - total));
+        }
+        total += src.remaining();
+      }
+      if (count == 0)
+        return 0;
+      long written;
+      try {
+        written = channel.write(srcs, offset, count);
+      } finally {
+        if (cut >= 0)
+          srcs[cut].limit(cutLimit);
+      }
+      remaining -= written;
+      return written;
+    }
+
+    @Override public long write(ByteBuffer[] srcs) throws IOException {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
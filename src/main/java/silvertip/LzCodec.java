@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A fast LZ77 compression codec in the style of LZ4 with streaming dictionary
+ * reuse: matches may refer to the previous 64 KiB of the stream, not just to
+ * the current frame, so small repetitive messages compress well. Frames that
+ * are shorter than the minimum compression length, or that do not get smaller
+ * when compressed, are sent as they are.
+ * <p>
+ * A frame consists of a type byte, the length of the payload as a variable
+ * length integer, the uncompressed length as a variable length integer if the
+ * frame is compressed, and the payload. A compressed payload is a sequence of
+ * LZ4-style tokens, each followed by literals and, unless the payload ends, a
+ * two byte little-endian match offset.
+ * <p>
+ * A codec keeps about 400 KiB of state for the two directions of a connection.
+ */
+public class LzCodec implements CompressionCodec {
+  public static final int DEFAULT_MIN_COMPRESS_LENGTH = 64;
+
+  static final int MAX_FRAME_DATA_LENGTH = 64 * 1024;
+
+  private static final int TYPE_RAW = 0;
+  private static final int TYPE_COMPRESSED = 1;
+  private static final int MAX_OFFSET = 65535;
+  private static final int MIN_MATCH = 4;
+  private static final int HASH_BITS = 14;
+  private static final int MAX_PAYLOAD_LENGTH = MAX_FRAME_DATA_LENGTH + MAX_FRAME_DATA_LENGTH / 255 + 16;
+  private static final int MAX_HEADER_LENGTH = 1 + 5 + 5;
+
+  private final int minCompressLength;
+
+  private final byte[] txHistory = new byte[MAX_OFFSET + MAX_FRAME_DATA_LENGTH];
+  private final int[] hashTable = new int[1 << HASH_BITS];
+  private final byte[] txPayload = new byte[MAX_PAYLOAD_LENGTH];
+  private int txEnd;
+
+  private final byte[] rxHistory = new byte[MAX_OFFSET + MAX_FRAME_DATA_LENGTH];
+  private final byte[] rxPayload = new byte[MAX_PAYLOAD_LENGTH];
+  private int rxEnd;
+
+  public LzCodec() {
+    this(DEFAULT_MIN_COMPRESS_LENGTH);
+  }
+
+  public LzCodec(int minCompressLength) {
+    this.minCompressLength = Math.max(minCompressLength, MIN_MATCH + 1);
+    for (int i = 0; i < hashTable.length; i++)
+      hashTable[i] = -1;
+  }
+
+  @Override public int maxFrameLength() {
+    return MAX_HEADER_LENGTH + MAX_PAYLOAD_LENGTH;
+  }
+
+  @Override public void encode(ByteBuffer source, ByteBuffer target) {
+    int length = Math.min(source.remaining(), MAX_FRAME_DATA_LENGTH);
+    if (txEnd + length > txHistory.length)
+      slide();
+
+    int position = source.position();
+    int start = txEnd;
+    source.get(txHistory, start, length);
+    source.position(position);
+
+    int compressedLength = -1;
+    if (length >= minCompressLength) {
+      compressedLength = compress(start, start + length);
+      if (compressedLength >= length)
+        compressedLength = -1;
+    }
+
+    boolean compressed = compressedLength >= 0;
+    int payloadLength = compressed ? compressedLength : length;
+    int frameLength = 1 + varIntLength(payloadLength) + (compressed ? varIntLength(length) : 0) + payloadLength;
+    if (target.remaining() < frameLength)
+      throw new BufferOverflowException();
+
+    target.put((byte) (compressed ? TYPE_COMPRESSED : TYPE_RAW));
+    putVarInt(target, payloadLength);
+    if (compressed) {
+      putVarInt(target, length);
+      target.put(txPayload, 0, compressedLength);
+    } else {
+      target.put(txHistory, start, length);
+    }
+
+    txEnd = start + length;
+    source.position(position + length);
+  }
+
+  @Override public int decode(ByteBuffer source, ByteBuffer target) throws GarbledMessageException {
+    while (source.hasRemaining()) {
+      int position = source.position();
+      int type = source.get(position);
+      if (type != TYPE_RAW && type != TYPE_COMPRESSED)
+        throw new GarbledMessageException("Invalid frame type: " + type, new byte[] { (byte) type });
+
+      long payloadHeader = getVarInt(source, position + 1);
+      if (payloadHeader < 0)
+        return 0;
+      int payloadLength = (int) payloadHeader;
+      int headerEnd = position + 1 + varIntLength(payloadLength);
+
+      int length = payloadLength;
+      if (type == TYPE_COMPRESSED) {
+        long lengthHeader = getVarInt(source, headerEnd);
+        if (lengthHeader < 0)
+          return 0;
+        length = (int) lengthHeader;
+        headerEnd += varIntLength(length);
+      }
+      if (payloadLength > MAX_PAYLOAD_LENGTH || length > MAX_FRAME_DATA_LENGTH)
+        throw new GarbledMessageException("Invalid frame length: " + length, new byte[0]);
+
+      if (source.limit() - headerEnd < payloadLength)
+        return 0;
+      if (target.remaining() < length)
+        return length;
+
+      if (rxEnd + length > rxHistory.length) {
+        System.arraycopy(rxHistory, rxEnd - MAX_OFFSET, rxHistory, 0, MAX_OFFSET);
+        rxEnd = MAX_OFFSET;
+      }
+
+      source.position(headerEnd);
+      if (type == TYPE_RAW) {
+        source.get(rxHistory, rxEnd, length);
+      } else {
+        source.get(rxPayload, 0, payloadLength);
+        decompress(payloadLength, rxEnd + length);
+      }
+      target.put(rxHistory, rxEnd, length);
+      rxEnd += length;
+    }
+    return 0;
+  }
+
+  private void slide() {
+    int shift = txEnd - MAX_OFFSET;
+    System.arraycopy(txHistory, shift, txHistory, 0, MAX_OFFSET);
+    txEnd = MAX_OFFSET;
+    for (int i = 0; i < hashTable.length; i++)
+      hashTable[i] = Math.max(hashTable[i] - shift, -1);
+  }
+
+  private int compress(int from, int to) {
+    byte[] in = txHistory;
+    int anchor = from;
+    int op = 0;
+    int i = from;
+    int matchLimit = to - MIN_MATCH;
+    while (i <= matchLimit) {
+      int value = readInt(in, i);
+      int hash = (value * -1640531535) >>> (32 - HASH_BITS);
+      int candidate = hashTable[hash];
+      hashTable[hash] = i;
+      if (candidate < 0 || candidate >= i || i - candidate > MAX_OFFSET || readInt(in, candidate) != value) {
+        i++;
+        continue;
+      }
+
+      int matchLength = MIN_MATCH;
+      while (i + matchLength < to && in[candidate + matchLength] == in[i + matchLength])
+        matchLength++;
+
+      op = putSequence(op, anchor, i - anchor, i - candidate, matchLength);
+      i += matchLength;
+      anchor = i;
+    }
+    return putSequence(op, anchor, to - anchor, 0, 0);
+  }
+
+  private int putSequence(int op, int literalStart, int literalLength, int offset, int matchLength) {
+    byte[] out = txPayload;
+    int matchCode = matchLength > 0 ? matchLength - MIN_MATCH : 0;
+    int token = op++;
+    out[token] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15));
+    if (literalLength >= 15)
+      op = putLengthExtension(op, literalLength - 15);
+    System.arraycopy(txHistory, literalStart, out, op, literalLength);
+    op += literalLength;
+    if (matchLength > 0) {
+      out[op++] = (byte) offset;
+      out[op++] = (byte) (offset >>> 8);
+      if (matchCode >= 15)
+        op = putLengthExtension(op, matchCode - 15);
+    }
+    return op;
+  }
+
+  private int putLengthExtension(int op, int remaining) {
+    while (remaining >= 255) {
+      txPayload[op++] = (byte) 255;
+      remaining -= 255;
+    }
+    txPayload[op++] = (byte) remaining;
+    return op;
+  }
+
+  private void decompress(int inLength, int outLimit) throws GarbledMessageException {
+    byte[] in = rxPayload;
+    byte[] out = rxHistory;
+    int ip = 0;
+    int op = rxEnd;
+    while (ip < inLength) {
+      int token = in[ip++] & 0xff;
+      int literalLength = token >>> 4;
+      if (literalLength == 15) {
+        int b;
+        do {
+          if (ip >= inLength)
+            throw garbled();
+          b = in[ip++] & 0xff;
+          literalLength += b;
+        } while (b == 255);
+      }
+      if (ip + literalLength > inLength || op + literalLength > outLimit)
+        throw garbled();
+      System.arraycopy(in, ip, out, op, literalLength);
+      ip += literalLength;
+      op += literalLength;
+      if (ip == inLength)
+        break;
+
+      if (ip + 2 > inLength)
+        throw garbled();
+      int offset = (in[ip] & 0xff) | (in[ip + 1] & 0xff) << 8;
+      ip += 2;
+      int matchLength = token & 15;
+      if (matchLength == 15) {
+        int b;
+        do {
+          if (ip >= inLength)
+            throw garbled();
+          b = in[ip++] & 0xff;
+          matchLength += b;
+        } while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      if (offset == 0 || offset > op || op + matchLength > outLimit)
+        throw garbled();
+      int match = op - offset;
+      for (int k = 0; k < matchLength; k++)
+        out[op + k] = out[match + k];
+      op += matchLength;
+    }
+    if (op != outLimit)
+      throw garbled();
+  }
+
+  private static GarbledMessageException garbled() {
+    return new GarbledMessageException("Invalid compressed frame", new byte[0]);
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+  }
+
+  private static int varIntLength(int value) {
+    int length = 1;
+    while ((value >>>= 7) != 0)
+      length++;
+    return length;
+  }
+
+  private static void putVarInt(ByteBuffer buffer, int value) {
+    while ((value & ~0x7f) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Returns the variable length integer at <code>index</code>, or -1 if it
+   * is incomplete.
+   */
+  private static long getVarInt(ByteBuffer buffer, int index) throws GarbledMessageException {
+    long value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      if (index >= buffer.limit())
+        return -1;
+      int b = buffer.get(index++);
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value > Integer.MAX_VALUE)
+          break;
+        return value;
+      }
+    }
+    throw new GarbledMessageException("Invalid frame length", new byte[0]);
+  }
+}
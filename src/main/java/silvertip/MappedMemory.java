@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Plain, ordered and volatile accesses to the memory of a direct buffer at
+ * byte offsets, in native byte order. <code>ByteBuffer</code> has no ordered
+ * or volatile accesses before Java 9, so this class uses
+ * <code>sun.misc.Unsafe</code>. It is the only class that does: javac warns
+ * once about the field that holds it, and the warning cannot be suppressed.
+ * <p>
+ * The address of the buffer is read from <code>Buffer.address</code>, where
+ * every JDK from 6 on keeps the address of a direct buffer.
+ */
+final class MappedMemory {
+  private static final sun.misc.Unsafe UNSAFE;
+  private static final long ADDRESS_OFFSET;
+
+  static {
+    try {
+      Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      UNSAFE = uncheckedCast(field.get(null));
+      ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+    } catch (Exception e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /* Keeps the memory mapped for as long as it is accessed. */
+  private final ByteBuffer buffer;
+  private final long address;
+
+  MappedMemory(ByteBuffer buffer) {
+    if (!buffer.isDirect())
+      throw new IllegalArgumentException("Buffer is not direct");
+    this.buffer = buffer;
+    this.address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+  }
+
+  long getLong(int offset) {
+    return UNSAFE.getLong(address + offset);
+  }
+
+  long getLongVolatile(int offset) {
+    return UNSAFE.getLongVolatile(null, address + offset);
+  }
+
+  void putOrderedLong(int offset, long value) {
+    UNSAFE.putOrderedLong(null, address + offset, value);
+  }
+
+  void putLongVolatile(int offset, long value) {
+    UNSAFE.putLongVolatile(null, address + offset, value);
+  }
+
+  int getIntVolatile(int offset) {
+    return UNSAFE.getIntVolatile(null, address + offset);
+  }
+
+  void putIntVolatile(int offset, int value) {
+    UNSAFE.putIntVolatile(null, address + offset, value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T uncheckedCast(Object object) {
+    return (T) object;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A reusable list of parsed messages that doubles as the iterator handed to
+ * <code>Connection.Callback.messages()</code>, so that dispatching a batch of
+ * messages does not allocate.
+ */
+class MessageBatch<T> implements Iterator<T> {
+  private Object[] messages = new Object[16];
+  private int size;
+  private int cursor;
+
+  void add(T message) {
+    if (size == messages.length) {
+      Object[] newMessages = new Object[messages.length * 2];
+      System.arraycopy(messages, 0, newMessages, 0, size);
+      messages = newMessages;
+    }
+    messages[size++] = message;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  Iterator<T> iterator() {
+    cursor = 0;
+    return this;
+  }
+
+  boolean retain(T message) {
+    for (int i = 0; i < size; i++) {
+      if (messages[i] == message) {
+        messages[i] = null;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unchecked")
+  void release(MessagePool<T> pool) {
+    for (int i = 0; i < size; i++) {
+      if (messages[i] != null)
+        pool.release((T) messages[i]);
+    }
+  }
+
+  void clear() {
+    for (int i = 0; i < size; i++)
+      messages[i] = null;
+    size = 0;
+    cursor = 0;
+  }
+
+  @Override public boolean hasNext() {
+    return cursor < size;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override public T next() {
+    if (cursor >= size)
+      throw new NoSuchElementException();
+    return (T) messages[cursor++];
+  }
+
+  @Override public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+
+public interface MessageEncoder<T> {
+  /**
+   * Encodes <code>message</code> into <code>buffer</code>.
+   * <p>
+   * <b>Do's & Don'ts for implementors</b>:
+   * 
+   * <ul>
+   * <li>Write the message starting at the current position of
+   * <code>buffer</code> and leave the position at the end of the message. The
+   * buffer may already contain other messages before its position.</li>
+   * <li>If the message does not fit in <code>buffer</code>, let the
+   * <code>BufferOverflowException</code> thrown by <code>ByteBuffer</code>
+   * propagate (or throw one yourself). Callers restore <code>buffer</code> and
+   * retry with a larger buffer, so the same message may be encoded more than
+   * once.</li>
+   * <li>Do not change the limit of <code>buffer</code> or call
+   * <code>flip()</code>, <code>mark()</code> or <code>compact()</code> on
+   * it.</li>
+   * </ul>
+   * 
+   * @throws java.nio.BufferOverflowException
+   *           if <code>message</code> does not fit in <code>buffer</code>.
+   */
+  void encode(T message, ByteBuffer buffer);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+/**
+ * A pool of reusable message instances for <code>MessageParser</code>
+ * implementations that want to decode without producing garbage.
+ * <p>
+ * A parser draws an instance with <code>acquire()</code> and fills it in.
+ * When the pool is also given to the <code>Connection</code> with
+ * <code>Connection.setMessagePool()</code>, the connection returns every
+ * parsed message to the pool after <code>Callback.messages()</code> returns.
+ * A callback that needs to keep a message beyond that must call
+ * <code>Connection.retain()</code> and later give the message back with
+ * <code>release()</code> itself.
+ * <p>
+ * A pool is not thread-safe. It can be shared by connections registered to
+ * the same <code>Events</code> instance but not across threads.
+ */
+public abstract class MessagePool<T> {
+  private final Object[] free;
+  private int size;
+
+  public MessagePool(int capacity) {
+    this.free = new Object[capacity];
+  }
+
+  @SuppressWarnings("unchecked")
+  public T acquire() {
+    if (size == 0)
+      return newMessage();
+
+    T message = (T) free[--size];
+    free[size] = null;
+    return message;
+  }
+
+  /**
+   * Returns <code>message</code> to the pool. If the pool is full, the message
+   * is left for the garbage collector.
+   */
+  public void release(T message) {
+    if (size == free.length)
+      return;
+
+    reset(message);
+    free[size++] = message;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Creates a new message instance when the pool is empty.
+   */
+  protected abstract T newMessage();
+
+  /**
+   * Clears the state of <code>message</code> before it is put back to the pool.
+   * The default implementation does nothing.
+   */
+  protected void reset(T message) {
+  }
+}
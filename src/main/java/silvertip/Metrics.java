@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * A fixed set of named counters and gauges maintained by the event loop
+ * thread. Values are published with ordered writes, so any thread can read
+ * them through <code>get()</code>, <code>snapshot()</code> or JMX without
+ * slowing down the event loop with locked or volatile read-modify-write
+ * instructions. Readers may see a value that is slightly out of date, but
+ * never a torn one.
+ * <p>
+ * To expose the metrics of an event loop over JMX:
+ *
+ * <pre>
+ *   events.metrics().register("silvertip:type=Events,name=main");
+ * </pre>
+ */
+public class Metrics implements DynamicMBean {
+  private final String[] names;
+  private final AtomicLongArray values;
+  private ObjectName objectName;
+
+  Metrics(String... names) {
+    this.names = names;
+    this.values = new AtomicLongArray(names.length);
+  }
+
+  /**
+   * Adds <code>delta</code> to the metric at <code>index</code>. Must only be
+   * called from the thread that owns the metrics.
+   */
+  void add(int index, long delta) {
+    values.lazySet(index, values.get(index) + delta);
+  }
+
+  void increment(int index) {
+    add(index, 1);
+  }
+
+  /**
+   * Sets the metric at <code>index</code>. Must only be called from the thread
+   * that owns the metrics.
+   */
+  void set(int index, long value) {
+    values.lazySet(index, value);
+  }
+
+  public String[] names() {
+    return names.clone();
+  }
+
+  /**
+   * @throws IllegalArgumentException if there is no metric called
+   *           <code>name</code>.
+   */
+  public long get(String name) {
+    int index = indexOf(name);
+    if (index < 0)
+      throw new IllegalArgumentException("Unknown metric: " + name);
+    return values.get(index);
+  }
+
+  /**
+   * Returns the current value of every metric, in declaration order.
+   */
+  public Map<String, Long> snapshot() {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (int i = 0; i < names.length; i++)
+      result.put(names[i], values.get(i));
+    return result;
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server as
+   * <code>objectName</code>.
+   */
+  public synchronized void register(String objectName) throws JMException {
+    ObjectName name = new ObjectName(objectName);
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    this.objectName = name;
+  }
+
+  public synchronized void unregister() throws JMException {
+    if (objectName == null)
+      return;
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    objectName = null;
+  }
+
+  @Override public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    int index = indexOf(attribute);
+    if (index < 0)
+      throw new AttributeNotFoundException(attribute);
+    return values.get(index);
+  }
+
+  @Override public AttributeList getAttributes(String[] attributes) {
+    AttributeList result = new AttributeList();
+    for (String attribute : attributes) {
+      int index = indexOf(attribute);
+      if (index >= 0)
+        result.add(new Attribute(attribute, values.get(index)));
+    }
+    return result;
+  }
+
+  @Override public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Read-only attribute: " + attribute.getName());
+  }
+
+  @Override public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  @Override public MBeanInfo getMBeanInfo() {
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[names.length];
+    for (int i = 0; i < names.length; i++)
+      attributes[i] = new MBeanAttributeInfo(names[i], "long", names[i], true, false, false);
+    return new MBeanInfo(getClass().getName(), "Silvertip metrics", attributes, null,
+        new MBeanOperationInfo[0], null);
+  }
+
+  private int indexOf(String name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name))
+        return i;
+    }
+    return -1;
+  }
+}
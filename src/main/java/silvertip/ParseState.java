@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+/**
+ * What a <code>ResumableMessageParser</code> has learned about a partial
+ * message, kept by the connection between reads. Both values are relative to
+ * the start of the partial message, so they stay valid when the connection
+ * moves the message within its receive buffer.
+ */
+public class ParseState {
+  private int scanned;
+  private int length = -1;
+
+  /**
+   * Returns the number of bytes at the start of the message that the parser
+   * has already checked.
+   */
+  public int scanned() {
+    return scanned;
+  }
+
+  public void setScanned(int scanned) {
+    this.scanned = scanned;
+  }
+
+  /**
+   * Returns the total length of the message, or -1 if it is not known yet.
+   */
+  public int length() {
+    return length;
+  }
+
+  public void setLength(int length) {
+    this.length = length;
+  }
+
+  public void reset() {
+    scanned = 0;
+    length = -1;
+  }
+}
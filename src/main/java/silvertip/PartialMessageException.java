@@ -15,6 +15,15 @@
  */
 package silvertip;
 
+/**
+ * Thrown by <code>MessageParser</code> implementations when the buffer does
+ * not contain a full message. The exception is used for flow control on every
+ * read that ends with a partial message, so it does not capture a stack trace.
+ */
 public class PartialMessageException extends Exception {
   private static final long serialVersionUID = 1L;
+
+  @Override public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request/response client that keeps up to a window of requests in flight
+ * on one <code>Connection</code> instead of waiting for every response before
+ * sending the next request. Responses are matched to requests by the ids that
+ * a user-supplied <code>Correlation</code> extracts from them, so they may
+ * arrive in any order.
+ * <p>
+ * The client is the <code>Connection.Callback</code> of its connection:
+ *
+ * <pre>
+ *   PipelinedClient&lt;Request, Response&gt; client = new PipelinedClient&lt;Request, Response&gt;(events,
+ *       encoder, correlation, 16, 5, TimeUnit.SECONDS);
+ *   events.register(Connection.connect(address, parser, client));
+ *   client.send(request, responseCallback);
+ * </pre>
+ *
+ * Requests sent while the window is full, or before the connection is
+ * established, wait in a queue. Bookkeeping for in-flight requests uses
+ * preallocated arrays sized to the window: responses are matched through a
+ * hash table of ids, and if several requests share an id, the oldest one
+ * matches. Since all requests have the same timeout, the oldest request in
+ * flight has the earliest deadline, so a single timer set for that deadline
+ * replaces a timer per request.
+ * <p>
+ * Subclasses that override the <code>Connection.Callback</code> methods must
+ * call the overridden methods.
+ */
+public class PipelinedClient<Req, Resp> implements Connection.Callback<Resp> {
+  public interface Correlation<Req, Resp> {
+    long requestId(Req request);
+
+    long responseId(Resp response);
+  }
+
+  public interface ResponseCallback<Req, Resp> {
+    void completed(Req request, Resp response);
+
+    void timedOut(Req request);
+
+    /**
+     * Called for requests that were in flight or queued when the connection
+     * closed.
+     */
+    void failed(Req request);
+  }
+
+  private final Events events;
+  private final MessageEncoder<? super Req> encoder;
+  private final Correlation<Req, Resp> correlation;
+  private final long timeoutNanos;
+  private final long[] ids;
+  private final long[] deadlines;
+  private final Object[] requests;
+  private final Object[] callbacks;
+  private final int[] buckets;
+  private final int[] nextInBucket;
+  private final int[] older;
+  private final int[] newer;
+  private final int[] freeSlots;
+  private final ArrayDeque<Object> pending = new ArrayDeque<Object>();
+  private final Runnable expiry = new Runnable() {
+    @Override public void run() {
+      expiryTimeout = null;
+      expire(System.nanoTime());
+      scheduleExpiry();
+    }
+  };
+  private Connection<Resp> connection;
+  private Timeout expiryTimeout;
+  private long unmatched;
+  private int inFlight;
+  private int oldest = -1;
+  private int newest = -1;
+
+  public PipelinedClient(Events events, MessageEncoder<? super Req> encoder, Correlation<Req, Resp> correlation,
+      int window, long timeout, TimeUnit unit) {
+    if (window < 1)
+      throw new IllegalArgumentException("Window must be positive");
+    this.events = events;
+    this.encoder = encoder;
+    this.correlation = correlation;
+    this.timeoutNanos = unit.toNanos(timeout);
+    this.ids = new long[window];
+    this.deadlines = new long[window];
+    this.requests = new Object[window];
+    this.callbacks = new Object[window];
+    this.buckets = new int[Integer.highestOneBit(window * 2 - 1) << 1];
+    this.nextInBucket = new int[window];
+    this.older = new int[window];
+    this.newer = new int[window];
+    this.freeSlots = new int[window];
+    Arrays.fill(buckets, -1);
+    for (int slot = 0; slot < window; slot++)
+      freeSlots[slot] = window - 1 - slot;
+  }
+
+  /**
+   * Sends <code>request</code> if the window has room, or queues it otherwise.
+   * <code>callback</code> can be shared by any number of requests.
+   */
+  public void send(Req request, ResponseCallback<Req, Resp> callback) {
+    if (connection == null || inFlight == requests.length || !pending.isEmpty()) {
+      pending.add(request);
+      pending.add(callback);
+      return;
+    }
+    transmit(request, callback);
+  }
+
+  public int inFlight() {
+    return inFlight;
+  }
+
+  public int pending() {
+    return pending.size() / 2;
+  }
+
+  /**
+   * Returns the number of responses that did not match a request in flight,
+   * for example because the request had already timed out.
+   */
+  public long unmatched() {
+    return unmatched;
+  }
+
+  public Connection<Resp> connection() {
+    return connection;
+  }
+
+  @Override public void connected(Connection<Resp> connection) {
+    this.connection = connection;
+    sendPending();
+  }
+
+  @Override public void messages(Connection<Resp> connection, Iterator<Resp> messages) {
+    while (messages.hasNext()) {
+      Resp response = messages.next();
+      int slot = find(correlation.responseId(response));
+      if (slot < 0) {
+        unmatched++;
+        continue;
+      }
+      Req request = request(slot);
+      ResponseCallback<Req, Resp> callback = callback(slot);
+      free(slot);
+      callback.completed(request, response);
+    }
+    sendPending();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override public void closed(Connection<Resp> connection) {
+    if (expiryTimeout != null) {
+      expiryTimeout.cancel();
+      expiryTimeout = null;
+    }
+    this.connection = null;
+    while (oldest >= 0) {
+      int slot = oldest;
+      Req request = request(slot);
+      ResponseCallback<Req, Resp> callback = callback(slot);
+      free(slot);
+      callback.failed(request);
+    }
+    while (!pending.isEmpty()) {
+      Req request = (Req) pending.poll();
+      ((ResponseCallback<Req, Resp>) pending.poll()).failed(request);
+    }
+  }
+
+  @Override public void garbledMessage(Connection<Resp> connection, String message, byte[] data) {
+  }
+
+  @Override public void sent(ByteBuffer buffer) {
+  }
+
+  void expire(long now) {
+    while (oldest >= 0 && deadlines[oldest] - now <= 0) {
+      int slot = oldest;
+      Req request = request(slot);
+      ResponseCallback<Req, Resp> callback = callback(slot);
+      free(slot);
+      callback.timedOut(request);
+    }
+    sendPending();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void sendPending() {
+    while (connection != null && inFlight < requests.length && !pending.isEmpty()) {
+      Req request = (Req) pending.poll();
+      transmit(request, (ResponseCallback<Req, Resp>) pending.poll());
+    }
+  }
+
+  private void transmit(Req request, ResponseCallback<Req, Resp> callback) {
+    int slot = freeSlots[requests.length - 1 - inFlight];
+    long id = correlation.requestId(request);
+    ids[slot] = id;
+    deadlines[slot] = System.nanoTime() + timeoutNanos;
+    requests[slot] = request;
+    callbacks[slot] = callback;
+    inFlight++;
+    /* Append to the bucket so that the oldest request with an id matches. */
+    nextInBucket[slot] = -1;
+    int bucket = bucket(id);
+    if (buckets[bucket] < 0) {
+      buckets[bucket] = slot;
+    } else {
+      int last = buckets[bucket];
+      while (nextInBucket[last] >= 0)
+        last = nextInBucket[last];
+      nextInBucket[last] = slot;
+    }
+    older[slot] = newest;
+    newer[slot] = -1;
+    if (newest >= 0)
+      newer[newest] = slot;
+    else
+      oldest = slot;
+    newest = slot;
+    try {
+      connection.send(request, encoder);
+    } catch (RuntimeException e) {
+      free(slot);
+      throw e;
+    }
+    scheduleExpiry();
+  }
+
+  private int find(long id) {
+    int slot = buckets[bucket(id)];
+    while (slot >= 0 && ids[slot] != id)
+      slot = nextInBucket[slot];
+    return slot;
+  }
+
+  private void free(int slot) {
+    int bucket = bucket(ids[slot]);
+    if (buckets[bucket] == slot) {
+      buckets[bucket] = nextInBucket[slot];
+    } else {
+      int previous = buckets[bucket];
+      while (nextInBucket[previous] != slot)
+        previous = nextInBucket[previous];
+      nextInBucket[previous] = nextInBucket[slot];
+    }
+    if (older[slot] >= 0)
+      newer[older[slot]] = newer[slot];
+    else
+      oldest = newer[slot];
+    if (newer[slot] >= 0)
+      older[newer[slot]] = older[slot];
+    else
+      newest = older[slot];
+    requests[slot] = null;
+    callbacks[slot] = null;
+    inFlight--;
+    freeSlots[requests.length - 1 - inFlight] = slot;
+  }
+
+  private int bucket(long id) {
+    long hash = id * 0x9e3779b97f4a7c15L;
+    return (int) (hash >>> 32) & (buckets.length - 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Req request(int slot) {
+    return (Req) requests[slot];
+  }
+
+  @SuppressWarnings("unchecked")
+  private ResponseCallback<Req, Resp> callback(int slot) {
+    return (ResponseCallback<Req, Resp>) callbacks[slot];
+  }
+
+  /*
+   * Sets the timer for the deadline of the oldest request unless a timer is
+   * already set. A timer that fires after its request has completed finds
+   * nothing to expire and moves on to the next oldest request.
+   */
+  private void scheduleExpiry() {
+    if (connection == null || expiryTimeout != null || oldest < 0)
+      return;
+    long delay = Math.max(deadlines[oldest] - System.nanoTime(), 0);
+    expiryTimeout = events.schedule(expiry, delay, TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.IOException;
+
+/**
+ * An event source whose input does not arrive through a selectable channel
+ * and must be polled, such as shared memory. <code>Events</code> polls these
+ * sources on every pass and only blocks in <code>select()</code> after all of
+ * them have agreed to wake it up through their registered channel when input
+ * arrives.
+ */
+public interface PolledEventSource extends EventSource {
+  /**
+   * Processes input that is available without blocking and returns
+   * <code>true</code> if there was any.
+   */
+  boolean poll() throws IOException;
+
+  /**
+   * Called before <code>Events</code> blocks. Returns <code>false</code> if
+   * input has arrived since the last poll, in which case <code>Events</code>
+   * does not block.
+   */
+  boolean prepareToBlock();
+}
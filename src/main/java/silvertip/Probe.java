@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives notifications about I/O activity that is worth investigating when
+ * chasing latency spikes: slow dispatch passes, partial writes and transitions
+ * in and out of write backpressure, large parse batches, garbled messages, and
+ * connections being accepted or closed. A probe is installed with
+ * <code>Events.setProbe()</code> and covers every event source registered to
+ * that event loop. Without a probe, none of the measurements are taken.
+ * <p>
+ * Methods are called on the event loop thread and must return quickly. A
+ * typical implementation forwards to a flight recorder, a tracing system or a
+ * lock-free log so that network stalls can be lined up with garbage
+ * collection and scheduling activity. The default implementations do nothing.
+ */
+public abstract class Probe {
+  private long slowDispatchThresholdNanos = TimeUnit.MILLISECONDS.toNanos(1);
+  private int largeBatchThreshold = 256;
+
+  /**
+   * Sets the duration a pass over the selected keys must exceed before
+   * <code>slowDispatch()</code> is called. The default is one millisecond.
+   */
+  public void setSlowDispatchThreshold(long threshold, TimeUnit unit) {
+    this.slowDispatchThresholdNanos = unit.toNanos(threshold);
+  }
+
+  public long slowDispatchThresholdNanos() {
+    return slowDispatchThresholdNanos;
+  }
+
+  /**
+   * Sets the number of messages a single parse pass must reach before
+   * <code>largeBatch()</code> is called. The default is 256.
+   */
+  public void setLargeBatchThreshold(int largeBatchThreshold) {
+    if (largeBatchThreshold < 1)
+      throw new IllegalArgumentException("Large batch threshold must be positive");
+    this.largeBatchThreshold = largeBatchThreshold;
+  }
+
+  public int largeBatchThreshold() {
+    return largeBatchThreshold;
+  }
+
+  /**
+   * Called when dispatching <code>keys</code> selected keys took
+   * <code>nanos</code> nanoseconds, at least the slow dispatch threshold.
+   */
+  public void slowDispatch(long nanos, int keys) {
+  }
+
+  /**
+   * Called when a write to <code>connection</code> accepted
+   * <code>written</code> bytes and left <code>pending</code> bytes queued.
+   */
+  public void partialWrite(Connection<?> connection, long written, long pending) {
+  }
+
+  /**
+   * Called when <code>connection</code> starts waiting for the socket to
+   * become writable, with <code>blocked</code> set, and again when its queue
+   * has drained.
+   */
+  public void backpressure(Connection<?> connection, boolean blocked, long pending) {
+  }
+
+  /**
+   * Called when one parse pass on <code>connection</code> produced
+   * <code>messages</code> messages, at least the large batch threshold.
+   */
+  public void largeBatch(Connection<?> connection, int messages) {
+  }
+
+  public void garbledMessage(Connection<?> connection, String message) {
+  }
+
+  public void accepted(Connection<?> connection) {
+  }
+
+  public void closed(Connection<?> connection) {
+  }
+}
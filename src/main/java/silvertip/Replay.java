@@ -0,0 +1,254 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds traffic recorded with <code>Capture</code> through the read path of a
+ * <code>Connection</code>, without a socket, for reproducible benchmarks of
+ * parsers and callbacks. Every recorded socket read is delivered to the
+ * connection as one read, either as fast as possible or with the original
+ * pacing.
+ * <p>
+ * The connection must be created with a <code>null</code> channel and must not
+ * be registered with <code>Events</code>; <code>run()</code> calls
+ * <code>Callback.connected()</code> itself. Data the callback sends is
+ * counted and discarded, and scheduled timers do not run.
+ *
+ * <pre>
+ *   Replay replay = Replay.open(file);
+ *   replay.run(new Connection&lt;Message&gt;(null, parser, callback));
+ *   System.out.println(replay.bytesReceived() * 1e9 / replay.elapsedNanos() + " bytes/s");
+ * </pre>
+ */
+public class Replay {
+  private final FileChannel file;
+  private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+  private final Input input = new Input();
+  private final Output output = new Output();
+  private boolean paced;
+  private long wallClockMillis;
+  private long records;
+  private long bytesReceived;
+  private long elapsedNanos;
+
+  public static Replay open(File file) throws IOException {
+    return new Replay(new FileInputStream(file).getChannel());
+  }
+
+  Replay(FileChannel file) throws IOException {
+    this.file = file;
+    buffer.limit(0);
+    if (!fill(Capture.HEADER_LENGTH) || buffer.getInt() != Capture.MAGIC)
+      throw new IOException("Not a capture file");
+    if (buffer.getShort() != Capture.VERSION)
+      throw new IOException("Unsupported capture file version");
+    wallClockMillis = buffer.getLong();
+  }
+
+  /**
+   * Makes <code>run()</code> deliver records with the intervals they were
+   * captured with instead of as fast as possible.
+   */
+  public void setPaced(boolean paced) {
+    this.paced = paced;
+  }
+
+  /**
+   * Returns the wall-clock time the capture was started at.
+   */
+  public long wallClockMillis() {
+    return wallClockMillis;
+  }
+
+  public long records() {
+    return records;
+  }
+
+  public long bytesReceived() {
+    return bytesReceived;
+  }
+
+  public long bytesSent() {
+    return output.bytes;
+  }
+
+  public long elapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Delivers all records to <code>connection</code> and closes it once the
+   * recording ends.
+   */
+  public void run(Connection<?> connection) throws IOException {
+    connection.replay(input, output);
+    long start = System.nanoTime();
+    long deadline = start;
+    try {
+      while (!connection.isClosed()) {
+        long interval = Capture.getVarLong(buffer);
+        if (interval < 0 && fill(Capture.MAX_RECORD_HEADER_LENGTH))
+          interval = Capture.getVarLong(buffer);
+        if (interval < 0)
+          break;
+        long length = Capture.getVarLong(buffer);
+        if (length < 0 && fill(Capture.MAX_RECORD_HEADER_LENGTH))
+          length = Capture.getVarLong(buffer);
+        if (length < 0 || length > Integer.MAX_VALUE || !fill((int) length))
+          throw new IOException("Truncated capture file");
+
+        if (paced) {
+          deadline += interval;
+          long delay;
+          while ((delay = deadline - System.nanoTime()) > 0)
+            LockSupport.parkNanos(delay);
+        }
+        deliver(connection, (int) length);
+      }
+      if (!connection.isClosed()) {
+        input.end();
+        connection.read();
+      }
+    } finally {
+      elapsedNanos = System.nanoTime() - start;
+    }
+  }
+
+  public void close() throws IOException {
+    file.close();
+  }
+
+  private void deliver(Connection<?> connection, int length) throws IOException {
+    int limit = buffer.limit();
+    buffer.limit(buffer.position() + length);
+    while (buffer.hasRemaining() && !connection.isClosed()) {
+      int remaining = buffer.remaining();
+      input.next(buffer);
+      connection.read();
+      if (buffer.remaining() == remaining)
+        throw new IOException("Connection did not consume record " + records + "; receive buffer is full");
+    }
+    buffer.limit(limit);
+    records++;
+    bytesReceived += length;
+  }
+
+  /**
+   * Makes sure <code>buffer</code> has at least <code>length</code> remaining
+   * bytes and returns <code>false</code> if the file ends before that.
+   */
+  private boolean fill(int length) throws IOException {
+    if (buffer.remaining() >= length)
+      return true;
+    if (buffer.capacity() < length) {
+      ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, length));
+      newBuffer.put(buffer);
+      newBuffer.flip();
+      buffer = newBuffer;
+    }
+    buffer.compact();
+    try {
+      while (buffer.position() < length) {
+        if (file.read(buffer) < 0)
+          return false;
+      }
+    } finally {
+      buffer.flip();
+    }
+    return true;
+  }
+
+  /**
+   * Returns the current record on the first read and nothing on the following
+   * reads, so that the connection sees the read boundaries of the capture.
+   */
+  private static class Input implements ReadableByteChannel {
+    private ByteBuffer record;
+    private boolean delivered;
+    private boolean ended;
+    private boolean open = true;
+
+    void next(ByteBuffer record) {
+      this.record = record;
+      this.delivered = false;
+    }
+
+    void end() {
+      ended = true;
+    }
+
+    @Override public int read(ByteBuffer dst) {
+      if (ended)
+        return -1;
+      if (delivered || record == null || !record.hasRemaining())
+        return 0;
+      delivered = true;
+      int length = Math.min(dst.remaining(), record.remaining());
+      int limit = record.limit();
+      record.limit(record.position() + length);
+      dst.put(record);
+      record.limit(limit);
+      return length;
+    }
+
+    @Override public boolean isOpen() {
+      return open;
+    }
+
+    @Override public void close() {
+      open = false;
+    }
+  }
+
+  private static class Output implements GatheringByteChannel {
+    private long bytes;
+
+    @Override public int write(ByteBuffer src) {
+      int length = src.remaining();
+      src.position(src.limit());
+      bytes += length;
+      return length;
+    }
+
+    @Override public long write(ByteBuffer[] srcs, int offset, int length) {
+      long total = 0;
+      for (int i = offset; i < offset + length; i++)
+        total += write(srcs[i]);
+      return total;
+    }
+
+    @Override public long write(ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override public boolean isOpen() {
+      return true;
+    }
+
+    @Override public void close() {
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A parser that can pick up a partial message where it left off instead of
+ * scanning it again from its first byte after every read, which makes the
+ * cost of receiving a large message linear in its size.
+ * <p>
+ * <code>Connection</code> passes the same <code>state</code> to every call
+ * until a message has been parsed or found garbled, and then resets it. The
+ * parser records its progress in <code>state</code> before it throws
+ * <code>PartialMessageException</code>. If it records the length of the
+ * message, the connection makes room for the whole message at once.
+ */
+public interface ResumableMessageParser<T> extends MessageParser<T> {
+  T parse(ByteBuffer buffer, ParseState state) throws PartialMessageException, GarbledMessageException;
+}
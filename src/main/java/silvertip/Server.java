@@ -16,9 +16,10 @@
 package silvertip;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
@@ -27,23 +28,146 @@ public class Server implements EventSource {
     Connection<T> newConnection(SocketChannel channel);
   }
 
+  public static final int DEFAULT_ACCEPT_BATCH_SIZE = 64;
+
+  private static final int ACCEPTED = 0;
+  private static final int REJECTED = 1;
+
   private final ServerSocketChannel serverChannel;
   private final ConnectionFactory<?> factory;
+  private int acceptBatchSize = DEFAULT_ACCEPT_BATCH_SIZE;
+  private int acceptedInBatch;
+  private SocketOptions socketOptions;
+  private AdmissionControl admissionControl;
   private Events events;
+  private final Metrics metrics = new Metrics("Accepted", "Rejected");
 
   public static Server accept(int port, ConnectionFactory<?> factory) throws IOException {
+    return accept(port, 0, factory);
+  }
+
+  /**
+   * Opens a server that listens on <code>port</code> with an accept queue of
+   * <code>backlog</code> pending connections. If <code>backlog</code> is zero
+   * or negative, the platform default is used.
+   */
+  public static Server accept(int port, int backlog, ConnectionFactory<?> factory) throws IOException {
     ServerSocketChannel serverChannel = ServerSocketChannel.open();
     serverChannel.configureBlocking(false);
     serverChannel.socket().setReuseAddress(true);
-    serverChannel.socket().bind(new InetSocketAddress(port));
+    serverChannel.socket().bind(new InetSocketAddress(port), backlog);
+    return new Server(serverChannel, factory);
+  }
+
+  /**
+   * Opens a server that listens on <code>port</code> with
+   * <code>SO_REUSEPORT</code> enabled. Several such servers can listen on the
+   * same port, typically one per <code>Events</code> loop, and the kernel
+   * balances incoming connections between them:
+   *
+   * <pre>
+   *   // On each event loop thread:
+   *   Events events = Events.open();
+   *   events.register(Server.acceptReusePort(port, backlog, factory));
+   *   while (events.process(timeout))
+   *     ;
+   * </pre>
+   *
+   * If <code>factory</code> is shared by the servers, it must be thread-safe.
+   *
+   * @throws IOException
+   *           if <code>SO_REUSEPORT</code> is not supported by the JVM or the
+   *           operating system.
+   * @see #isReusePortSupported()
+   */
+  public static Server acceptReusePort(int port, int backlog, ConnectionFactory<?> factory) throws IOException {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.configureBlocking(false);
+      serverChannel.socket().setReuseAddress(true);
+      setReusePort(serverChannel);
+      serverChannel.socket().bind(new InetSocketAddress(port), backlog);
+    } catch (IOException e) {
+      serverChannel.close();
+      throw e;
+    }
     return new Server(serverChannel, factory);
   }
 
+  /**
+   * Returns <code>true</code> if <code>acceptReusePort()</code> is supported.
+   * <code>SO_REUSEPORT</code> requires Java 9 or later and an operating system
+   * that implements it.
+   */
+  public static boolean isReusePortSupported() {
+    try {
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      try {
+        setReusePort(serverChannel);
+        return true;
+      } finally {
+        serverChannel.close();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static void setReusePort(ServerSocketChannel serverChannel) throws IOException {
+    try {
+      Class<?> socketOption = Class.forName("java.net.SocketOption");
+      Object reusePort = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+      Method setOption = ServerSocketChannel.class.getMethod("setOption", socketOption, Object.class);
+      setOption.invoke(serverChannel, reusePort, Boolean.TRUE);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException("SO_REUSEPORT is not supported", e.getCause());
+    } catch (Exception e) {
+      throw new IOException("SO_REUSEPORT is not supported", e);
+    }
+  }
+
   public Server(ServerSocketChannel serverChannel, ConnectionFactory<?> factory) {
     this.serverChannel = serverChannel;
     this.factory = factory;
   }
 
+  /**
+   * Sets the maximum number of connections accepted per readiness event. A
+   * larger batch drains a connection storm in fewer event loop passes at the
+   * cost of delaying other event sources for longer.
+   */
+  public void setAcceptBatchSize(int acceptBatchSize) {
+    if (acceptBatchSize < 1)
+      throw new IllegalArgumentException("Accept batch size must be positive");
+    this.acceptBatchSize = acceptBatchSize;
+  }
+
+  /**
+   * Sets the options applied to every accepted socket before it is passed to
+   * the connection factory.
+   */
+  public void setSocketOptions(SocketOptions socketOptions) {
+    this.socketOptions = socketOptions;
+  }
+
+  /**
+   * Sets the admission control that decides whether an accepted socket is
+   * passed to the connection factory or reset right away.
+   */
+  public void setAdmissionControl(AdmissionControl admissionControl) {
+    this.admissionControl = admissionControl;
+  }
+
+  /**
+   * Returns the number of connections accepted and the number rejected by
+   * admission control or by the connection factory.
+   */
+  public Metrics metrics() {
+    return metrics;
+  }
+
   public void close() throws IOException {
     if (events != null)
       events.unregister(this);
@@ -65,18 +189,54 @@ public class Server implements EventSource {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Accepts the next pending connection. <code>Events</code> calls this method
+   * repeatedly on every readiness event until it returns <code>null</code>,
+   * which happens when there are no more pending connections or when the
+   * accept batch size has been reached.
+   */
   @Override public EventSource accept() throws IOException {
-    SocketChannel channel = serverChannel.accept();
-    if (channel == null)
-      return null;
+    while (acceptedInBatch < acceptBatchSize) {
+      SocketChannel channel = serverChannel.accept();
+      if (channel == null)
+        break;
+
+      acceptedInBatch++;
+
+      if (admissionControl != null && !admissionControl.admit(channel.socket().getInetAddress())) {
+        SocketChannels.abort(channel);
+        metrics.increment(REJECTED);
+        continue;
+      }
+
+      Connection<?> connection = newConnection(channel);
+      if (connection != null) {
+        connection.setAdmissionControl(admissionControl);
+        metrics.increment(ACCEPTED);
+        if (events != null && events.probe() != null)
+          events.probe().accepted(connection);
+        return connection;
+      }
+
+      if (admissionControl != null)
+        admissionControl.release();
 
-    channel.configureBlocking(false);
-
-    Connection connection = factory.newConnection(channel);
-    if (connection == null)
       SocketChannels.close(channel);
+      metrics.increment(REJECTED);
+    }
+    acceptedInBatch = 0;
+    return null;
+  }
 
-    return connection;
+  private Connection<?> newConnection(SocketChannel channel) {
+    try {
+      channel.configureBlocking(false);
+      if (socketOptions != null)
+        socketOptions.apply(channel.socket());
+    } catch (IOException e) {
+      return null;
+    }
+    return factory.newConnection(channel);
   }
 
   @Override public boolean isClosed() {
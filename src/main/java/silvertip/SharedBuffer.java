@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+
+/**
+ * A reference-counted buffer whose contents can be sent to many connections
+ * without copying. Each <code>Connection.send(SharedBuffer)</code> queues a
+ * view of the buffer and holds a reference until the view has been written
+ * to the socket. The buffer starts with one reference owned by its creator,
+ * which must call <code>release()</code> once it no longer needs the buffer.
+ * <p>
+ * Reference counts are not thread-safe; a shared buffer must only be used by
+ * connections registered with the same <code>Events</code>.
+ */
+public final class SharedBuffer {
+  private final ByteBuffer buffer;
+  private final Deque<SharedBuffer> recycler;
+  private int refCount = 1;
+
+  public SharedBuffer(ByteBuffer buffer) {
+    this(buffer, null);
+  }
+
+  SharedBuffer(ByteBuffer buffer, Deque<SharedBuffer> recycler) {
+    this.buffer = buffer;
+    this.recycler = recycler;
+  }
+
+  /**
+   * Returns the data of this buffer between its position and limit. Callers
+   * must not modify it while the buffer is referenced by connections.
+   */
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  public int refCount() {
+    return refCount;
+  }
+
+  public SharedBuffer retain() {
+    if (refCount == 0)
+      throw new IllegalStateException("Buffer has been released");
+    refCount++;
+    return this;
+  }
+
+  public void release() {
+    if (refCount == 0)
+      throw new IllegalStateException("Buffer has been released");
+    if (--refCount == 0 && recycler != null)
+      recycler.push(this);
+  }
+
+  void reset() {
+    refCount = 1;
+  }
+}
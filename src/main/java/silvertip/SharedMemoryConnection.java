@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * A connection to another process on the same host through a pair of
+ * memory-mapped rings, one per direction. Messages are parsed and dispatched
+ * exactly as on a socket connection, but sending and receiving do not involve
+ * system calls as long as the receiving side is polling.
+ * <p>
+ * <code>Events</code> polls the connection on every pass. Before it blocks,
+ * the connection asks the peer to ring a doorbell, a datagram sent to a
+ * loopback port that is registered with the selector, so that an idle
+ * receiver does not need to spin. For the lowest latency, run the event loop
+ * with <code>processNow()</code> in a busy loop so that the doorbell is never
+ * used.
+ * <p>
+ * The two processes open the same pair of files with the roles swapped:
+ *
+ * <pre>
+ *   // Process A
+ *   SharedMemoryConnection.open(new File("a-to-b"), new File("b-to-a"), 1 &lt;&lt; 20, parser, callback);
+ *   // Process B
+ *   SharedMemoryConnection.open(new File("b-to-a"), new File("a-to-b"), 1 &lt;&lt; 20, parser, callback);
+ * </pre>
+ *
+ * The rings are good for one session: delete the files once both sides have
+ * closed. If the peer's ring is full, outbound data is queued and retried on
+ * every pass of the event loop.
+ */
+public class SharedMemoryConnection<T> extends Connection<T> implements PolledEventSource {
+  private final SharedMemoryRing rx;
+  private final SharedMemoryRing tx;
+  private final DatagramChannel doorbell;
+  private final DatagramChannel bell;
+  private final ByteBuffer doorbellBuffer = ByteBuffer.allocate(16);
+  private final ByteBuffer bellBuffer = ByteBuffer.allocate(1);
+  private InetSocketAddress peerDoorbell;
+  private int peerDoorbellPort;
+  private boolean waiting;
+
+  /**
+   * Maps <code>rxFile</code> for receiving and <code>txFile</code> for
+   * sending, creating either file if it does not exist yet.
+   */
+  public static <T> SharedMemoryConnection<T> open(File rxFile, File txFile, int capacity, MessageParser<T> parser,
+      Callback<T> callback) throws IOException {
+    DatagramChannel doorbell = DatagramChannel.open();
+    doorbell.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+    doorbell.configureBlocking(false);
+    DatagramChannel bell = DatagramChannel.open();
+    bell.configureBlocking(false);
+    return new SharedMemoryConnection<T>(SharedMemoryRing.open(rxFile, capacity),
+        SharedMemoryRing.open(txFile, capacity), doorbell, bell, parser, callback);
+  }
+
+  private SharedMemoryConnection(SharedMemoryRing rx, SharedMemoryRing tx, DatagramChannel doorbell,
+      DatagramChannel bell, MessageParser<T> parser, Callback<T> callback) {
+    super(doorbell, rx, tx, parser, callback);
+    this.rx = rx;
+    this.tx = tx;
+    this.doorbell = doorbell;
+    this.bell = bell;
+  }
+
+  @Override public boolean poll() throws IOException {
+    if (!hasDemand() || rx.available() == 0 && !rx.isProducerClosed())
+      return false;
+    read();
+    return true;
+  }
+
+  @Override public boolean prepareToBlock() {
+    if (!hasDemand())
+      return true;
+    if (!rx.prepareToBlock(doorbell.socket().getLocalPort()))
+      return false;
+    waiting = true;
+    return true;
+  }
+
+  @Override public void read() throws IOException {
+    if (waiting) {
+      while (doorbell.receive(doorbellBuffer) != null)
+        doorbellBuffer.clear();
+      rx.wokenUp();
+      waiting = false;
+    }
+    super.read();
+    ringDoorbell();
+  }
+
+  @Override public <M> void send(M message, MessageEncoder<? super M> encoder, Priority priority) {
+    super.send(message, encoder, priority);
+    ringDoorbell();
+  }
+
+  @Override public void send(ByteBuffer buffer, Priority priority) {
+    super.send(buffer, priority);
+    ringDoorbell();
+  }
+
+  @Override public void send(SharedBuffer buffer) {
+    super.send(buffer);
+    ringDoorbell();
+  }
+
+  @Override public void write() throws IOException {
+    super.write();
+    ringDoorbell();
+  }
+
+  @Override public void closeNow() {
+    if (closed)
+      return;
+    super.closeNow();
+    tx.closeProducer();
+    ringDoorbell();
+    try {
+      bell.close();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * Wakes up the peer if it is blocked waiting for data. Sends made from
+   * <code>Callback.messages()</code> are flushed, and rung for, once
+   * <code>read()</code> has dispatched all messages.
+   */
+  private void ringDoorbell() {
+    int port = tx.doorbellPort();
+    if (port == 0)
+      return;
+    try {
+      if (port != peerDoorbellPort) {
+        peerDoorbell = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port);
+        peerDoorbellPort = port;
+      }
+      bellBuffer.clear();
+      bell.send(bellBuffer, peerDoorbell);
+    } catch (IOException e) {
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A single-producer, single-consumer byte ring in a memory-mapped file, used
+ * as a channel by the producing process on one side and by the consuming
+ * process on the other. The file starts with a header that keeps the
+ * positions of both sides, each on its own cache line, followed by the data.
+ * Positions only grow, so the ring is empty when they are equal.
+ * <p>
+ * The producer publishes data by writing its position after the data, and
+ * the consumer reads the position with a volatile load before the data; the
+ * consumer hands space back with an ordered store of its position. The header
+ * is accessed through <code>MappedMemory</code>, since the memory model says
+ * nothing about plain buffer accesses from two processes.
+ * <p>
+ * A consumer that is about to block sets a flag in the header with a volatile
+ * store and then checks for data, after which the producer sends a datagram
+ * to the port in the header whenever it publishes data. The producer
+ * publishes its position with a volatile store before it loads the flag, so
+ * either the consumer sees the data or the producer sees the flag.
+ */
+class SharedMemoryRing implements ReadableByteChannel, GatheringByteChannel {
+  private static final int MAGIC = 0x5356524e;
+  private static final int CAPACITY_OFFSET = 4;
+  private static final int HEAD_OFFSET = 64;
+  private static final int TAIL_OFFSET = 128;
+  private static final int WAITING_OFFSET = 192;
+  private static final int DOORBELL_PORT_OFFSET = 196;
+  private static final int PRODUCER_CLOSED_OFFSET = 200;
+  private static final int DATA_OFFSET = 256;
+
+  private final MappedByteBuffer mapped;
+  private final MappedMemory memory;
+  private final ByteBuffer data;
+  private final ByteBuffer view;
+  private final int capacity;
+  private final int mask;
+  private boolean open = true;
+
+  /* The other side's position as last read, to avoid touching its cache line. */
+  private long cachedHead;
+  private long cachedTail;
+
+  static SharedMemoryRing open(File file, int capacity) throws IOException {
+    if (Integer.bitCount(capacity) != 1)
+      throw new IllegalArgumentException("Capacity must be a power of two");
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = raf.getChannel();
+      boolean created = channel.size() == 0;
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity);
+      if (created) {
+        mapped.putInt(CAPACITY_OFFSET, capacity);
+        mapped.putInt(0, MAGIC);
+      } else if (mapped.getInt(0) != MAGIC || mapped.getInt(CAPACITY_OFFSET) != capacity) {
+        throw new IOException(file + " is not a ring of " + capacity + " bytes");
+      }
+      return new SharedMemoryRing(mapped, capacity);
+    } finally {
+      raf.close();
+    }
+  }
+
+  SharedMemoryRing(MappedByteBuffer mapped, int capacity) {
+    this.mapped = mapped;
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    mapped.position(DATA_OFFSET);
+    this.data = mapped.slice();
+    this.view = data.duplicate();
+    this.memory = new MappedMemory(mapped);
+    this.cachedHead = memory.getLongVolatile(HEAD_OFFSET);
+    this.cachedTail = memory.getLongVolatile(TAIL_OFFSET);
+  }
+
+  /**
+   * Returns the number of bytes the consumer can read.
+   */
+  int available() {
+    long head = memory.getLong(HEAD_OFFSET);
+    if (cachedTail - head == 0)
+      cachedTail = memory.getLongVolatile(TAIL_OFFSET);
+    return (int) (cachedTail - head);
+  }
+
+  /**
+   * Tells the producer to ring the doorbell from now on and returns
+   * <code>false</code> if data arrived in the meantime.
+   */
+  boolean prepareToBlock(int doorbellPort) {
+    mapped.putInt(DOORBELL_PORT_OFFSET, doorbellPort);
+    memory.putIntVolatile(WAITING_OFFSET, 1);
+    return available() == 0 && !isProducerClosed();
+  }
+
+  void wokenUp() {
+    memory.putIntVolatile(WAITING_OFFSET, 0);
+  }
+
+  /**
+   * Returns the port of the consumer's doorbell if the consumer is waiting
+   * for data, or 0.
+   */
+  int doorbellPort() {
+    if (memory.getIntVolatile(WAITING_OFFSET) == 0)
+      return 0;
+    return mapped.getInt(DOORBELL_PORT_OFFSET);
+  }
+
+  boolean isProducerClosed() {
+    return memory.getIntVolatile(PRODUCER_CLOSED_OFFSET) != 0;
+  }
+
+  @Override public int read(ByteBuffer dst) {
+    long head = memory.getLong(HEAD_OFFSET);
+    int length = Math.min(available(), dst.remaining());
+    if (length == 0)
+      return isProducerClosed() && available() == 0 ? -1 : 0;
+    int index = (int) head & mask;
+    int first = Math.min(length, capacity - index);
+    copy(dst, index, first);
+    if (first < length)
+      copy(dst, 0, length - first);
+    memory.putOrderedLong(HEAD_OFFSET, head + length);
+    return length;
+  }
+
+  @Override public int write(ByteBuffer src) {
+    long tail = memory.getLong(TAIL_OFFSET);
+    int length = Math.min(free(tail, src.remaining()), src.remaining());
+    if (length == 0)
+      return 0;
+    int index = (int) tail & mask;
+    int first = Math.min(length, capacity - index);
+    view.limit(index + first);
+    view.position(index);
+    int limit = src.limit();
+    src.limit(src.position() + first);
+    view.put(src);
+    if (first < length) {
+      view.limit(length - first);
+      view.position(0);
+      src.limit(src.position() + length - first);
+      view.put(src);
+    }
+    src.limit(limit);
+    memory.putLongVolatile(TAIL_OFFSET, tail + length);
+    return length;
+  }
+
+  @Override public long write(ByteBuffer[] srcs, int offset, int length) {
+    long total = 0;
+    for (int i = offset; i < offset + length; i++) {
+      int remaining = srcs[i].remaining();
+      int written = write(srcs[i]);
+      total += written;
+      if (written < remaining)
+        break;
+    }
+    return total;
+  }
+
+  @Override public long write(ByteBuffer[] srcs) {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Closes this side of the ring. When the producer closes, the consumer sees
+   * the end of the stream after reading the remaining data.
+   */
+  void closeProducer() {
+    memory.putIntVolatile(PRODUCER_CLOSED_OFFSET, 1);
+    open = false;
+  }
+
+  @Override public void close() {
+    open = false;
+  }
+
+  private int free(long tail, int wanted) {
+    int free = capacity - (int) (tail - cachedHead);
+    if (free < wanted) {
+      cachedHead = memory.getLongVolatile(HEAD_OFFSET);
+      free = capacity - (int) (tail - cachedHead);
+    }
+    return free;
+  }
+
+  private void copy(ByteBuffer dst, int index, int length) {
+    view.limit(index + length);
+    view.position(index);
+    dst.put(view);
+  }
+}
@@ -29,4 +29,20 @@ abstract class SocketChannels {
     }
   }
 
+  /**
+   * Closes <code>channel</code> with a reset instead of an orderly shutdown,
+   * so that the local end does not linger in <code>TIME_WAIT</code>.
+   */
+  public static void abort(SocketChannel channel) {
+    try {
+      channel.socket().setSoLinger(true, 0);
+    } catch (IOException e) {
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+    }
+  }
+
 }
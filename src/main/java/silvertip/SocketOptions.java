@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Socket options applied to sockets accepted by a <code>Server</code>. Options
+ * that are not set are left at the platform defaults.
+ */
+public class SocketOptions {
+  private Boolean tcpNoDelay;
+  private Boolean keepAlive;
+  private Integer receiveBufferSize;
+  private Integer sendBufferSize;
+  private Integer soLinger;
+  private Integer trafficClass;
+
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  public void setReceiveBufferSize(int receiveBufferSize) {
+    this.receiveBufferSize = receiveBufferSize;
+  }
+
+  public void setSendBufferSize(int sendBufferSize) {
+    this.sendBufferSize = sendBufferSize;
+  }
+
+  /**
+   * Sets <code>SO_LINGER</code> in seconds. A negative value disables it.
+   */
+  public void setSoLinger(int soLinger) {
+    this.soLinger = soLinger;
+  }
+
+  public void setTrafficClass(int trafficClass) {
+    this.trafficClass = trafficClass;
+  }
+
+  void apply(Socket socket) throws SocketException {
+    if (tcpNoDelay != null)
+      socket.setTcpNoDelay(tcpNoDelay);
+    if (keepAlive != null)
+      socket.setKeepAlive(keepAlive);
+    if (receiveBufferSize != null)
+      socket.setReceiveBufferSize(receiveBufferSize);
+    if (sendBufferSize != null)
+      socket.setSendBufferSize(sendBufferSize);
+    if (soLinger != null)
+      socket.setSoLinger(soLinger >= 0, Math.max(soLinger, 0));
+    if (trafficClass != null)
+      socket.setTrafficClass(trafficClass);
+  }
+}
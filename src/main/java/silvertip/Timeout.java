@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+/**
+ * A task scheduled with <code>Events.schedule()</code>. The task runs on the
+ * event loop thread during the first <code>Events.process()</code> or
+ * <code>Events.processNow()</code> call after its deadline.
+ */
+public class Timeout implements Comparable<Timeout> {
+  private final Events events;
+  private final Runnable task;
+  private final long deadline;
+  private final long sequence;
+  private boolean done;
+  private boolean cancelled;
+
+  Timeout(Events events, Runnable task, long deadline, long sequence) {
+    this.events = events;
+    this.task = task;
+    this.deadline = deadline;
+    this.sequence = sequence;
+  }
+
+  /**
+   * Cancels the task if it has not run yet.
+   */
+  public void cancel() {
+    if (done)
+      return;
+    done = true;
+    cancelled = true;
+    events.cancel(this);
+  }
+
+  public boolean isDone() {
+    return done;
+  }
+
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  long deadline() {
+    return deadline;
+  }
+
+  long sequence() {
+    return sequence;
+  }
+
+  void run() {
+    done = true;
+    task.run();
+  }
+
+  @Override public int compareTo(Timeout other) {
+    long diff = deadline - other.deadline;
+    if (diff == 0)
+      diff = sequence - other.sequence;
+    return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+  }
+}
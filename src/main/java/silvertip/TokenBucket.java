@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that permits <code>rate</code> events per second on average
+ * and bursts of up to <code>burst</code> events.
+ */
+class TokenBucket {
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final double rate;
+  private final int burst;
+  private double tokens;
+  private long lastRefill;
+
+  TokenBucket(double rate, int burst, long now) {
+    this.rate = rate;
+    this.burst = burst;
+    this.tokens = burst;
+    this.lastRefill = now;
+  }
+
+  boolean tryAcquire(long now) {
+    refill(now);
+    if (tokens < 1)
+      return false;
+    tokens--;
+    return true;
+  }
+
+  void refund() {
+    tokens = Math.min(burst, tokens + 1);
+  }
+
+  boolean isFull(long now) {
+    refill(now);
+    return tokens >= burst;
+  }
+
+  private void refill(long now) {
+    long elapsed = now - lastRefill;
+    if (elapsed <= 0)
+      return;
+    tokens = Math.min(burst, tokens + elapsed * rate / NANOS_PER_SECOND);
+    lastRefill = now;
+  }
+}
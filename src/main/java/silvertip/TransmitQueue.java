@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * The outbound data of a <code>Connection</code> that has not been written to
+ * the socket yet.
+ */
+abstract class TransmitQueue {
+  /*
+   * Bytes written by flush(), maintained by subclasses.
+   */
+  long bytesWritten;
+
+  /*
+   * Where queued messages end, in terms of bytesWritten.
+   */
+  private long[] boundaries;
+  private int boundaryHead;
+  private int boundaryCount;
+  private long lastBoundary;
+
+  abstract boolean isEmpty();
+
+  /**
+   * Returns the number of queued bytes that have not been written yet.
+   */
+  abstract long pendingBytes();
+
+  /**
+   * Queues the remaining bytes of <code>buffer</code>. Implementations either
+   * keep a reference to <code>buffer</code> or copy its contents; in both cases
+   * the position of <code>buffer</code> is left untouched.
+   *
+   * @throws java.nio.BufferOverflowException
+   *           if the queue is bounded and has no room for <code>buffer</code>.
+   */
+  abstract void add(ByteBuffer buffer);
+
+  /**
+   * Queues the remaining bytes of <code>buffer</code>, a view of
+   * <code>owner</code>, and takes over one reference to <code>owner</code>.
+   * Queues that copy release the reference right away; queues that keep
+   * <code>buffer</code> release it once <code>buffer</code> has been written
+   * or the queue is discarded.
+   */
+  void add(ByteBuffer buffer, SharedBuffer owner) {
+    try {
+      add(buffer);
+    } finally {
+      owner.release();
+    }
+  }
+
+  /**
+   * Encodes <code>message</code> at the end of the queue and passes a view of
+   * the encoded bytes to <code>callback</code>, unless it is <code>null</code>.
+   *
+   * @throws java.nio.BufferOverflowException
+   *           if the queue is bounded and has no room for <code>message</code>.
+   */
+  abstract <M> void encode(M message, MessageEncoder<? super M> encoder, Connection.Callback<?> callback);
+
+  /**
+   * Writes as much of the queue to <code>channel</code> as it accepts without
+   * blocking and returns <code>true</code> if the queue was drained.
+   */
+  abstract boolean flush(GatheringByteChannel channel) throws IOException;
+
+  /**
+   * Drops all queued data that has not been written. Called when the
+   * connection is closed.
+   */
+  void discard() {
+  }
+
+  /**
+   * Marks the end of the queued data as the end of a message. Called after
+   * each message, which may have been queued in several parts.
+   */
+  void endOfMessage() {
+    if (boundaries == null)
+      boundaries = new long[16];
+    dropWrittenBoundaries();
+    if (boundaryCount == boundaries.length) {
+      long[] newBoundaries = new long[boundaries.length * 2];
+      for (int i = 0; i < boundaryCount; i++)
+        newBoundaries[i] = boundaries[(boundaryHead + i) & (boundaries.length - 1)];
+      boundaries = newBoundaries;
+      boundaryHead = 0;
+    }
+    boundaries[(boundaryHead + boundaryCount) & (boundaries.length - 1)] = bytesWritten + pendingBytes();
+    boundaryCount++;
+  }
+
+  /**
+   * Returns the number of bytes that must be written to finish the message
+   * that has been partly written, or zero if the queue is at a message
+   * boundary.
+   */
+  long remainingInMessage() {
+    dropWrittenBoundaries();
+    if (boundaryCount == 0 || bytesWritten == lastBoundary)
+      return 0;
+    return boundaries[boundaryHead] - bytesWritten;
+  }
+
+  private void dropWrittenBoundaries() {
+    while (boundaryCount > 0 && boundaries[boundaryHead] <= bytesWritten) {
+      lastBoundary = boundaries[boundaryHead];
+      boundaryHead = (boundaryHead + 1) & (boundaries.length - 1);
+      boundaryCount--;
+    }
+  }
+
+  /**
+   * Encodes <code>message</code> into <code>buffer</code> between its limit
+   * and capacity and returns the number of encoded bytes, or -1 on overflow.
+   * On success, the limit is moved past the encoded bytes and
+   * <code>callback</code> sees a view of them; on overflow, or if the encoder
+   * throws, <code>buffer</code> is left as it was.
+   */
+  static <M> int append(ByteBuffer buffer, M message, MessageEncoder<? super M> encoder, int capacity,
+      Connection.Callback<?> callback) {
+    int position = buffer.position();
+    int start = buffer.limit();
+    buffer.limit(capacity);
+    buffer.position(start);
+    try {
+      encoder.encode(message, buffer);
+    } catch (RuntimeException e) {
+      buffer.limit(start);
+      buffer.position(position);
+      if (e instanceof BufferOverflowException)
+        return -1;
+      throw e;
+    }
+    int end = buffer.position();
+    buffer.limit(end);
+    buffer.position(start);
+    if (callback != null)
+      callback.sent(buffer);
+    buffer.limit(end);
+    buffer.position(position);
+    return end - start;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A bounded transmit queue backed by a contiguous off-heap ring buffer. Sent
+ * buffers are copied into the ring, so callers can reuse them as soon as
+ * <code>Connection.send()</code> returns, and queueing does not allocate.
+ * <p>
+ * The pending bytes occupy at most two regions of the ring, which are written
+ * to the socket with a single gathering write. Encoded messages always occupy
+ * one contiguous region; if a message does not fit at the end of the ring, the
+ * rest of the ring is skipped and the message is encoded at the beginning.
+ */
+class TransmitRing extends TransmitQueue {
+  private final ByteBuffer ring;
+  private final ByteBuffer[] regions;
+  private final ByteBuffer encodeView;
+  private final int capacity;
+
+  /*
+   * Pending bytes are in [head, tail) unless the ring is wrapped, in which case
+   * they are in [head, end) and [0, tail).
+   */
+  private int head;
+  private int tail;
+  private int end;
+  private boolean wrapped;
+  private int size;
+
+  TransmitRing(int capacity) {
+    this.ring = ByteBuffer.allocateDirect(capacity);
+    this.regions = new ByteBuffer[] { ring.duplicate(), ring.duplicate() };
+    this.encodeView = ring.duplicate();
+    this.capacity = capacity;
+  }
+
+  @Override boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  @Override long pendingBytes() {
+    return size;
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  @Override void add(ByteBuffer buffer) {
+    int length = buffer.remaining();
+    if (length > free())
+      throw new BufferOverflowException();
+
+    int position = buffer.position();
+    int limit = buffer.limit();
+    if (wrapped) {
+      copy(buffer, tail, length);
+      tail += length;
+    } else {
+      int first = Math.min(length, capacity - tail);
+      buffer.limit(position + first);
+      copy(buffer, tail, first);
+      tail += first;
+      if (first < length) {
+        buffer.limit(limit);
+        copy(buffer, 0, length - first);
+        end = tail;
+        tail = length - first;
+        wrapped = true;
+      }
+    }
+    buffer.limit(limit);
+    buffer.position(position);
+    size += length;
+  }
+
+  @Override <M> void encode(M message, MessageEncoder<? super M> encoder, Connection.Callback<?> callback) {
+    if (wrapped) {
+      if (!encode(message, encoder, head, callback))
+        throw new BufferOverflowException();
+      return;
+    }
+    if (encode(message, encoder, capacity, callback))
+      return;
+    if (head == 0)
+      throw new BufferOverflowException();
+
+    int start = tail;
+    tail = 0;
+    if (!encode(message, encoder, head, callback)) {
+      tail = start;
+      throw new BufferOverflowException();
+    }
+    end = start;
+    wrapped = true;
+  }
+
+  private <M> boolean encode(M message, MessageEncoder<? super M> encoder, int regionEnd,
+      Connection.Callback<?> callback) {
+    encodeView.limit(tail);
+    encodeView.position(tail);
+    if (append(encodeView, message, encoder, regionEnd, callback) < 0)
+      return false;
+    size += encodeView.limit() - tail;
+    tail = encodeView.limit();
+    return true;
+  }
+
+  @Override boolean flush(GatheringByteChannel channel) throws IOException {
+    while (size > 0) {
+      ByteBuffer first = regions[0];
+      ByteBuffer second = regions[1];
+      first.limit(wrapped ? end : tail);
+      first.position(head);
+      long written;
+      if (wrapped) {
+        second.limit(tail);
+        second.position(0);
+        written = channel.write(regions);
+      } else {
+        written = channel.write(first);
+      }
+      if (written == 0)
+        return false;
+      bytesWritten += written;
+      consume((int) written);
+    }
+    return true;
+  }
+
+  @Override void discard() {
+    head = tail = 0;
+    wrapped = false;
+    size = 0;
+  }
+
+  private void consume(int length) {
+    size -= length;
+    if (size == 0) {
+      head = tail = 0;
+      wrapped = false;
+      return;
+    }
+    if (wrapped && head + length >= end) {
+      head = head + length - end;
+      wrapped = false;
+    } else {
+      head += length;
+    }
+  }
+
+  private int free() {
+    if (wrapped)
+      return head - tail;
+    return capacity - tail + head;
+  }
+
+  private void copy(ByteBuffer source, int index, int length) {
+    ByteBuffer target = regions[0];
+    target.limit(index + length);
+    target.position(index);
+    target.put(source);
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.fix;
+
+import java.nio.ByteBuffer;
+
+import silvertip.BufferView;
+
+/**
+ * A parsed FIX message. The message does not copy its data: it indexes the
+ * tags and value positions of the receive buffer it was parsed from, and the
+ * typed accessors decode values straight from that buffer without
+ * allocating. A message is only valid until <code>Callback.messages()</code>
+ * returns, after which it goes back to its <code>FixMessagePool</code>,
+ * unless it is retained with <code>Connection.retain()</code>, which copies it
+ * into a buffer the message owns.
+ * <p>
+ * Fields are addressed either by tag, which finds the first field with that
+ * tag, or by index in message order, which is how repeating groups are
+ * read. Tags below 1024 are looked up in constant time.
+ */
+public class FixMessage implements BufferView {
+  static final byte SOH = 0x01;
+
+  private static final int DENSE_TAGS = 1024;
+  private static final long[] POWERS_OF_TEN = new long[19];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+  }
+
+  private final int[] firstIndex = new int[DENSE_TAGS];
+  private final int[] generations = new int[DENSE_TAGS];
+  private int generation;
+  private int[] tags = new int[32];
+  private int[] offsets = new int[32];
+  private int[] lengths = new int[32];
+  private int count;
+  private ByteBuffer buffer;
+  private ByteBuffer ownBuffer;
+  private int offset;
+  private int length;
+
+  /**
+   * Returns the buffer this message was parsed from, or its own copy once it
+   * has been detached. The message occupies <code>length()</code> bytes
+   * starting at <code>offset()</code>.
+   */
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  public int offset() {
+    return offset;
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public int fieldCount() {
+    return count;
+  }
+
+  public int tagAt(int index) {
+    checkIndex(index);
+    return tags[index];
+  }
+
+  public boolean contains(int tag) {
+    return indexOf(tag) >= 0;
+  }
+
+  /**
+   * Returns the index of the first field with <code>tag</code>, or -1.
+   */
+  public int indexOf(int tag) {
+    if (tag >= 0 && tag < DENSE_TAGS)
+      return generations[tag] == generation ? firstIndex[tag] : -1;
+    return indexOf(tag, 0);
+  }
+
+  /**
+   * Returns the index of the first field with <code>tag</code> at or after
+   * <code>fromIndex</code>, or -1.
+   */
+  public int indexOf(int tag, int fromIndex) {
+    for (int i = Math.max(fromIndex, 0); i < count; i++) {
+      if (tags[i] == tag)
+        return i;
+    }
+    return -1;
+  }
+
+  public long getLong(int tag) {
+    return longAt(require(tag));
+  }
+
+  /**
+   * Returns the decimal value of <code>tag</code> multiplied by
+   * 10<sup><code>scale</code></sup>, so that a price of "101.25" with a scale
+   * of 4 is returned as 1012500.
+   *
+   * @throws ArithmeticException
+   *           if the value has more significant fraction digits than
+   *           <code>scale</code>.
+   */
+  public long getDecimal(int tag, int scale) {
+    return decimalAt(require(tag), scale);
+  }
+
+  public char getChar(int tag) {
+    return charAt(require(tag));
+  }
+
+  /**
+   * Appends the value of <code>tag</code> to <code>target</code> as ASCII.
+   */
+  public void getAscii(int tag, StringBuilder target) {
+    asciiAt(require(tag), target);
+  }
+
+  /**
+   * Returns the value of <code>tag</code> as a new string. Unlike the other
+   * accessors, this method allocates.
+   */
+  public String getString(int tag) {
+    StringBuilder result = new StringBuilder(lengths[require(tag)]);
+    getAscii(tag, result);
+    return result.toString();
+  }
+
+  public boolean valueEquals(int tag, byte[] value) {
+    int index = indexOf(tag);
+    if (index < 0 || lengths[index] != value.length)
+      return false;
+    for (int i = 0; i < value.length; i++) {
+      if (buffer.get(offsets[index] + i) != value[i])
+        return false;
+    }
+    return true;
+  }
+
+  public long longAt(int index) {
+    checkIndex(index);
+    int position = offsets[index];
+    int end = position + lengths[index];
+    boolean negative = position < end && buffer.get(position) == '-';
+    if (negative)
+      position++;
+    if (position == end)
+      throw new NumberFormatException("Tag " + tags[index] + " is not an integer");
+    long result = 0;
+    for (; position < end; position++)
+      result = result * 10 + digit(index, buffer.get(position));
+    return negative ? -result : result;
+  }
+
+  public long decimalAt(int index, int scale) {
+    checkIndex(index);
+    if (scale < 0 || scale >= POWERS_OF_TEN.length)
+      throw new IllegalArgumentException("Invalid scale: " + scale);
+    int position = offsets[index];
+    int end = position + lengths[index];
+    boolean negative = position < end && buffer.get(position) == '-';
+    if (negative)
+      position++;
+    long result = 0;
+    int digits = 0;
+    int fractionDigits = -1;
+    for (; position < end; position++) {
+      byte b = buffer.get(position);
+      if (b == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
+        continue;
+      }
+      int digit = digit(index, b);
+      digits++;
+      if (fractionDigits < 0) {
+        result = result * 10 + digit;
+      } else if (fractionDigits < scale) {
+        result = result * 10 + digit;
+        fractionDigits++;
+      } else if (digit != 0) {
+        throw new ArithmeticException("Tag " + tags[index] + " has more than " + scale + " fraction digits");
+      }
+    }
+    if (digits == 0)
+      throw new NumberFormatException("Tag " + tags[index] + " is not a decimal");
+    result *= POWERS_OF_TEN[scale - Math.max(fractionDigits, 0)];
+    return negative ? -result : result;
+  }
+
+  public char charAt(int index) {
+    checkIndex(index);
+    return (char) (buffer.get(offsets[index]) & 0xff);
+  }
+
+  public void asciiAt(int index, StringBuilder target) {
+    checkIndex(index);
+    int end = offsets[index] + lengths[index];
+    for (int position = offsets[index]; position < end; position++)
+      target.append((char) (buffer.get(position) & 0xff));
+  }
+
+  public int valueOffset(int index) {
+    checkIndex(index);
+    return offsets[index];
+  }
+
+  public int valueLength(int index) {
+    checkIndex(index);
+    return lengths[index];
+  }
+
+  @Override public String toString() {
+    StringBuilder result = new StringBuilder(length);
+    for (int i = 0; i < count; i++) {
+      result.append(tags[i]).append('=');
+      asciiAt(i, result);
+      result.append('|');
+    }
+    return result.toString();
+  }
+
+  @Override public void detach() {
+    if (buffer == ownBuffer)
+      return;
+    if (ownBuffer == null || ownBuffer.capacity() < length)
+      ownBuffer = ByteBuffer.allocate(length);
+    ByteBuffer data = buffer.duplicate();
+    data.limit(offset + length);
+    data.position(offset);
+    ownBuffer.clear();
+    ownBuffer.put(data);
+    ownBuffer.flip();
+    for (int i = 0; i < count; i++)
+      offsets[i] -= offset;
+    buffer = ownBuffer;
+    offset = 0;
+  }
+
+  void reset(ByteBuffer buffer, int offset) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = 0;
+    this.count = 0;
+    if (++generation == 0) {
+      for (int i = 0; i < DENSE_TAGS; i++)
+        generations[i] = 0;
+      generation = 1;
+    }
+  }
+
+  void clear() {
+    buffer = null;
+    count = 0;
+  }
+
+  void add(int tag, int valueOffset, int valueLength) {
+    if (count == tags.length) {
+      tags = grow(tags);
+      offsets = grow(offsets);
+      lengths = grow(lengths);
+    }
+    tags[count] = tag;
+    offsets[count] = valueOffset;
+    lengths[count] = valueLength;
+    if (tag < DENSE_TAGS && generations[tag] != generation) {
+      generations[tag] = generation;
+      firstIndex[tag] = count;
+    }
+    count++;
+  }
+
+  void setLength(int length) {
+    this.length = length;
+  }
+
+  private int require(int tag) {
+    int index = indexOf(tag);
+    if (index < 0)
+      throw new IllegalArgumentException("Tag " + tag + " not found");
+    return index;
+  }
+
+  private int digit(int index, byte b) {
+    if (b < '0' || b > '9')
+      throw new NumberFormatException("Tag " + tags[index] + " is not a number");
+    return b - '0';
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= count)
+      throw new IndexOutOfBoundsException("Index: " + index + ", fields: " + count);
+  }
+
+  private static int[] grow(int[] array) {
+    int[] result = new int[array.length * 2];
+    System.arraycopy(array, 0, result, 0, array.length);
+    return result;
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.fix;
+
+import silvertip.MessagePool;
+
+/**
+ * A pool of <code>FixMessage</code> instances for <code>FixParser</code>. The
+ * same pool must be given to the connection with
+ * <code>Connection.setMessagePool()</code> so that messages are reused.
+ */
+public class FixMessagePool extends MessagePool<FixMessage> {
+  public FixMessagePool(int capacity) {
+    super(capacity);
+  }
+
+  @Override protected FixMessage newMessage() {
+    return new FixMessage();
+  }
+
+  @Override protected void reset(FixMessage message) {
+    message.clear();
+  }
+}
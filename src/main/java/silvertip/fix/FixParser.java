@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.fix;
+
+import java.nio.ByteBuffer;
+
+import silvertip.GarbledMessageException;
+import silvertip.ParseState;
+import silvertip.PartialMessageException;
+import silvertip.ResumableMessageParser;
+
+/**
+ * Parses FIX tag=value messages. A message must start with BeginString(8)
+ * followed by BodyLength(9), and must end with a CheckSum(10) field at the
+ * position BodyLength announces. The parser reads the header first and only
+ * indexes the body once the whole message has arrived, computing the
+ * checksum in the same pass. Once the header of a partial message has been
+ * read, the parser waits for the announced length without looking at the
+ * message again.
+ * <p>
+ * Garbled messages are skipped up to the next field that looks like the start
+ * of a message:
+ *
+ * <pre>
+ *   FixMessagePool pool = new FixMessagePool(64);
+ *   Connection&lt;FixMessage&gt; connection = new Connection&lt;FixMessage&gt;(channel, new FixParser(pool), callback);
+ *   connection.setMessagePool(pool);
+ * </pre>
+ */
+public class FixParser implements ResumableMessageParser<FixMessage> {
+  public static final int DEFAULT_MAX_BODY_LENGTH = 64 * 1024;
+
+  private static final int BEGIN_STRING = 8;
+  private static final int BODY_LENGTH = 9;
+  private static final int CHECK_SUM = 10;
+  private static final int TRAILER_LENGTH = "10=000\u0001".length();
+  private static final int MAX_TAG_DIGITS = 9;
+
+  private final FixMessagePool pool;
+  private int maxBodyLength = DEFAULT_MAX_BODY_LENGTH;
+
+  /* The end of the last field parsed by nextField(), or -1 if it is partial. */
+  private int fieldEnd;
+  private int valueOffset;
+
+  public FixParser(FixMessagePool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Sets the largest BodyLength(9) the parser accepts. Messages that announce
+   * a longer body are treated as garbled.
+   */
+  public void setMaxBodyLength(int maxBodyLength) {
+    this.maxBodyLength = maxBodyLength;
+  }
+
+  @Override public FixMessage parse(ByteBuffer buffer) throws GarbledMessageException, PartialMessageException {
+    return parse(buffer, null);
+  }
+
+  @Override public FixMessage parse(ByteBuffer buffer, ParseState state) throws GarbledMessageException,
+      PartialMessageException {
+    int start = buffer.position();
+    int limit = buffer.limit();
+    if (state != null && state.length() > limit - start)
+      throw new PartialMessageException();
+
+    if (nextField(buffer, start, limit) != BEGIN_STRING)
+      throw garbled(buffer, start, "BeginString(8) expected");
+    int beginStringEnd = fieldEnd;
+    int beginStringOffset = valueOffset;
+    if (nextField(buffer, beginStringEnd, limit) != BODY_LENGTH)
+      throw garbled(buffer, start, "BodyLength(9) expected");
+    int bodyStart = fieldEnd;
+    int bodyLengthOffset = valueOffset;
+    long bodyLength = parseLength(buffer, bodyLengthOffset, bodyStart - 1);
+    if (bodyLength < 0 || bodyLength > maxBodyLength)
+      throw garbled(buffer, start, "Invalid BodyLength(9)");
+
+    int bodyEnd = bodyStart + (int) bodyLength;
+    int end = bodyEnd + TRAILER_LENGTH;
+    if (end > limit) {
+      if (state != null)
+        state.setLength(end - start);
+      throw new PartialMessageException();
+    }
+    if (buffer.get(bodyEnd) != '1' || buffer.get(bodyEnd + 1) != '0' || buffer.get(bodyEnd + 2) != '='
+        || buffer.get(end - 1) != FixMessage.SOH)
+      throw garbled(buffer, start, "CheckSum(10) expected at end of body");
+
+    FixMessage message = pool.acquire();
+    message.reset(buffer, start);
+    message.add(BEGIN_STRING, beginStringOffset, beginStringEnd - 1 - beginStringOffset);
+    message.add(BODY_LENGTH, bodyLengthOffset, bodyStart - 1 - bodyLengthOffset);
+    int position = bodyStart;
+    while (position < bodyEnd) {
+      int tag = nextField(buffer, position, bodyEnd);
+      if (tag < 0) {
+        pool.release(message);
+        throw garbled(buffer, start, "Malformed field in body");
+      }
+      message.add(tag, valueOffset, fieldEnd - 1 - valueOffset);
+      position = fieldEnd;
+    }
+    message.add(CHECK_SUM, bodyEnd + 3, 3);
+
+    int checksum = 0;
+    for (int i = start; i < bodyEnd; i++)
+      checksum += buffer.get(i);
+    if ((checksum & 0xff) != parseLength(buffer, bodyEnd + 3, end - 1)) {
+      pool.release(message);
+      throw garbled(buffer, start, "Invalid CheckSum(10)");
+    }
+
+    message.setLength(end - start);
+    buffer.position(end);
+    return message;
+  }
+
+  /**
+   * Parses the field at <code>position</code> and returns its tag, leaving
+   * the end of the field in <code>fieldEnd</code> and the start of its value
+   * in <code>valueOffset</code>.
+   *
+   * @throws PartialMessageException
+   *           if the field does not end before <code>limit</code> and
+   *           <code>limit</code> is the end of the buffer.
+   * @return the tag, or -1 if the field is malformed.
+   */
+  private int nextField(ByteBuffer buffer, int position, int limit) throws PartialMessageException {
+    int tag = 0;
+    int i = position;
+    for (; i < limit; i++) {
+      byte b = buffer.get(i);
+      if (b == '=')
+        break;
+      if (b < '0' || b > '9' || i - position == MAX_TAG_DIGITS)
+        return -1;
+      tag = tag * 10 + (b - '0');
+    }
+    if (i == limit)
+      return partial(buffer, limit);
+    if (i == position)
+      return -1;
+    valueOffset = ++i;
+    for (; i < limit; i++) {
+      if (buffer.get(i) == FixMessage.SOH) {
+        fieldEnd = i + 1;
+        return tag;
+      }
+    }
+    return partial(buffer, limit);
+  }
+
+  private static int partial(ByteBuffer buffer, int limit) throws PartialMessageException {
+    if (limit == buffer.limit())
+      throw new PartialMessageException();
+    return -1;
+  }
+
+  private static long parseLength(ByteBuffer buffer, int offset, int end) {
+    if (offset == end || end - offset > 9)
+      return -1;
+    long result = 0;
+    for (int i = offset; i < end; i++) {
+      byte b = buffer.get(i);
+      if (b < '0' || b > '9')
+        return -1;
+      result = result * 10 + (b - '0');
+    }
+    return result;
+  }
+
+  /**
+   * Skips <code>buffer</code> to the next "8=" that follows a field
+   * delimiter and returns an exception with the skipped bytes.
+   */
+  private static GarbledMessageException garbled(ByteBuffer buffer, int start, String reason) {
+    int limit = buffer.limit();
+    int next = limit;
+    for (int i = start + 1; i < limit; i++) {
+      if (buffer.get(i - 1) == FixMessage.SOH && buffer.get(i) == '8' && (i + 1 == limit || buffer.get(i + 1) == '=')) {
+        next = i;
+        break;
+      }
+    }
+    byte[] data = new byte[next - start];
+    buffer.position(start);
+    buffer.get(data);
+    return new GarbledMessageException(reason, data);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.flow;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import silvertip.Connection;
+
+/**
+ * Publishes the messages received on a connection to one subscriber, at the
+ * rate the subscriber requests them. The publisher is the
+ * <code>Connection.Callback</code> of its connection and keeps the demand of
+ * the connection equal to that of the subscriber, so a connection whose
+ * subscriber has no outstanding demand stops reading and its peer is held
+ * back by TCP flow control. Messages are never buffered outside the receive
+ * buffer of the connection.
+ * <p>
+ * Signals are delivered on the event loop thread, and the subscription must
+ * be used from that thread as well. Garbled messages are skipped. The
+ * subscriber completes when the connection closes, and cancelling the
+ * subscription closes the connection.
+ */
+public class ConnectionPublisher<T> implements Connection.Callback<T>, Flow.Publisher<T> {
+  private Flow.Subscriber<? super T> subscriber;
+  private Connection<T> connection;
+  private long pendingDemand;
+  private boolean done;
+
+  private final Flow.Subscription subscription = new Flow.Subscription() {
+    @Override public void request(long n) {
+      if (done)
+        return;
+      if (n < 1) {
+        fail(new IllegalArgumentException("Request must be positive"));
+        return;
+      }
+      if (connection != null)
+        connection.request(n);
+      else
+        pendingDemand = pendingDemand + n < 0 ? Long.MAX_VALUE : pendingDemand + n;
+    }
+
+    @Override public void cancel() {
+      if (done)
+        return;
+      done = true;
+      if (connection != null)
+        connection.close();
+    }
+  };
+
+  @Override public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    if (this.subscriber != null) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override public void request(long n) {
+        }
+
+        @Override public void cancel() {
+        }
+      });
+      subscriber.onError(new IllegalStateException("Publisher allows only one subscriber"));
+      return;
+    }
+    this.subscriber = subscriber;
+    subscriber.onSubscribe(subscription);
+  }
+
+  @Override public void connected(Connection<T> connection) {
+    this.connection = connection;
+    if (done) {
+      connection.close();
+      return;
+    }
+    connection.setDemand(pendingDemand);
+    pendingDemand = 0;
+  }
+
+  @Override public void messages(Connection<T> connection, Iterator<T> messages) {
+    while (messages.hasNext() && !done)
+      subscriber.onNext(messages.next());
+  }
+
+  @Override public void closed(Connection<T> connection) {
+    if (done)
+      return;
+    done = true;
+    if (subscriber != null)
+      subscriber.onComplete();
+  }
+
+  @Override public void garbledMessage(Connection<T> connection, String message, byte[] data) {
+  }
+
+  @Override public void sent(ByteBuffer buffer) {
+  }
+
+  private void fail(Throwable throwable) {
+    done = true;
+    if (connection != null)
+      connection.close();
+    subscriber.onError(throwable);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.flow;
+
+import silvertip.Connection;
+import silvertip.MessageEncoder;
+
+/**
+ * Sends the items of a publisher on a connection. The subscriber keeps at
+ * most <code>window</code> items requested, and stops requesting while more
+ * than <code>maxPendingBytes</code> bytes wait in the transmit queue of the
+ * connection, so a slow peer slows down the publisher instead of growing the
+ * queue. Requests resume once the queue drains.
+ * <p>
+ * Items must be signalled on the event loop thread of the connection. The
+ * connection is closed, after writing what has been queued, when the
+ * publisher completes or fails.
+ */
+public class ConnectionSubscriber<M> implements Flow.Subscriber<M> {
+  private final Connection<?> connection;
+  private final MessageEncoder<? super M> encoder;
+  private final int window;
+  private final long maxPendingBytes;
+  private Flow.Subscription subscription;
+  private long requested;
+
+  public ConnectionSubscriber(Connection<?> connection, MessageEncoder<? super M> encoder, int window,
+      long maxPendingBytes) {
+    if (window < 1)
+      throw new IllegalArgumentException("Window must be positive");
+    this.connection = connection;
+    this.encoder = encoder;
+    this.window = window;
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  @Override public void onSubscribe(Flow.Subscription subscription) {
+    if (this.subscription != null) {
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    connection.setDrainListener(new Runnable() {
+      @Override public void run() {
+        requestMore();
+      }
+    });
+    requestMore();
+  }
+
+  @Override public void onNext(M item) {
+    requested--;
+    if (connection.isClosed()) {
+      subscription.cancel();
+      return;
+    }
+    connection.send(item, encoder);
+    if (requested <= window / 2)
+      requestMore();
+  }
+
+  @Override public void onError(Throwable throwable) {
+    connection.close();
+  }
+
+  @Override public void onComplete() {
+    connection.close();
+  }
+
+  private void requestMore() {
+    if (subscription == null || connection.isClosed() || connection.pendingBytes() > maxPendingBytes)
+      return;
+    long n = window - requested;
+    if (n > 0) {
+      requested += n;
+      subscription.request(n);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.nio.ByteBuffer;
+
+import silvertip.Connection;
+import silvertip.Events;
+import silvertip.MessageEncoder;
+
+/**
+ * The client side of a SoupBinTCP session. The session logs in as soon as
+ * its connection is established. When the same session object is connected
+ * again after its connection was closed, it logs in to the session it was
+ * last logged in to and requests the sequence number after the last message
+ * it received, so that delivery resumes without gaps or duplicates.
+ */
+public class ClientSession extends Session {
+  public interface Listener {
+    void loginAccepted(ClientSession session);
+
+    /**
+     * Called with <code>SoupBinTcp.NOT_AUTHORIZED</code> or
+     * <code>SoupBinTcp.SESSION_NOT_AVAILABLE</code>. The session closes the
+     * connection after this method returns.
+     */
+    void loginRejected(ClientSession session, byte reason);
+
+    /**
+     * Called for every sequenced message. <code>packet</code> is only valid
+     * for the duration of the call.
+     */
+    void sequencedData(ClientSession session, long sequenceNumber, Packet packet);
+
+    void endOfSession(ClientSession session);
+  }
+
+  private static final MessageEncoder<ClientSession> LOGIN_REQUEST = new MessageEncoder<ClientSession>() {
+    @Override public void encode(ClientSession session, ByteBuffer buffer) {
+      SoupBinTcp.putAlphaLeft(buffer, session.username, SoupBinTcp.USERNAME_LENGTH);
+      SoupBinTcp.putAlphaLeft(buffer, session.password, SoupBinTcp.PASSWORD_LENGTH);
+      SoupBinTcp.putAlphaRight(buffer, session.sessionName, SoupBinTcp.SESSION_LENGTH);
+      SoupBinTcp.putNumeric(buffer, session.nextSequenceNumber, SoupBinTcp.SEQUENCE_NUMBER_LENGTH);
+    }
+  };
+
+  private final Listener listener;
+  private String username = "";
+  private String password = "";
+  private String sessionName = "";
+  private long nextSequenceNumber = 1;
+  private boolean loggedIn;
+
+  public ClientSession(Events events, Listener listener) {
+    super(events, SoupBinTcp.CLIENT_HEARTBEAT);
+    this.listener = listener;
+  }
+
+  public void setCredentials(String username, String password) {
+    this.username = username;
+    this.password = password;
+  }
+
+  /**
+   * Sets the session and the sequence number of the first message to request
+   * at the next login. An empty session name requests the current session,
+   * and a sequence number of 0 requests only new messages.
+   */
+  public void setRequestedSession(String sessionName, long sequenceNumber) {
+    this.sessionName = sessionName;
+    this.nextSequenceNumber = sequenceNumber;
+  }
+
+  public String sessionName() {
+    return sessionName;
+  }
+
+  /**
+   * Returns the sequence number of the next sequenced message.
+   */
+  public long nextSequenceNumber() {
+    return nextSequenceNumber;
+  }
+
+  public boolean isLoggedIn() {
+    return loggedIn;
+  }
+
+  public <M> void sendUnsequenced(M message, MessageEncoder<? super M> encoder) {
+    send(SoupBinTcp.UNSEQUENCED_DATA, message, encoder);
+  }
+
+  public void sendUnsequenced(ByteBuffer message) {
+    send(SoupBinTcp.UNSEQUENCED_DATA, message, SoupBinTcp.BYTES);
+  }
+
+  public void logout() {
+    send(SoupBinTcp.LOGOUT_REQUEST);
+  }
+
+  @Override public void connected(Connection<Packet> connection) {
+    super.connected(connection);
+    send(SoupBinTcp.LOGIN_REQUEST, this, LOGIN_REQUEST);
+  }
+
+  @Override public void closed(Connection<Packet> connection) {
+    loggedIn = false;
+    super.closed(connection);
+  }
+
+  @Override protected void packet(Packet packet) {
+    switch (packet.type()) {
+    case SoupBinTcp.SEQUENCED_DATA:
+      if (loggedIn)
+        listener.sequencedData(this, nextSequenceNumber++, packet);
+      break;
+    case SoupBinTcp.LOGIN_ACCEPTED:
+      sessionName = packet.alpha(0, SoupBinTcp.SESSION_LENGTH);
+      nextSequenceNumber = packet.numeric(SoupBinTcp.SESSION_LENGTH, SoupBinTcp.SEQUENCE_NUMBER_LENGTH);
+      if (nextSequenceNumber < 0) {
+        close();
+        return;
+      }
+      loggedIn = true;
+      listener.loginAccepted(this);
+      break;
+    case SoupBinTcp.LOGIN_REJECTED:
+      listener.loginRejected(this, packet.payloadLength() > 0 ? packet.payloadByte(0) : 0);
+      close();
+      break;
+    case SoupBinTcp.END_OF_SESSION:
+      listener.endOfSession(this);
+      close();
+      break;
+    default:
+      break;
+    }
+  }
+}
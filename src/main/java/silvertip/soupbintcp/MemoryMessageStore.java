@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message store that keeps all messages of the session in memory, one
+ * after another in a single growable buffer.
+ */
+public class MemoryMessageStore implements MessageStore {
+  private final String session;
+  private ByteBuffer data = ByteBuffer.allocate(64 * 1024);
+  private ByteBuffer view = data.duplicate();
+  private int[] ends = new int[1024];
+  private int count;
+
+  public MemoryMessageStore(String session) {
+    if (session.length() > SoupBinTcp.SESSION_LENGTH)
+      throw new IllegalArgumentException("Session name is longer than " + SoupBinTcp.SESSION_LENGTH + " characters");
+    this.session = session;
+  }
+
+  @Override public String session() {
+    return session;
+  }
+
+  @Override public long nextSequenceNumber() {
+    return count + 1;
+  }
+
+  /**
+   * Adds the remaining bytes of <code>message</code> to the store and returns
+   * its sequence number.
+   */
+  public long add(ByteBuffer message) {
+    if (message.remaining() > SoupBinTcp.MAX_PAYLOAD_LENGTH)
+      throw new IllegalArgumentException("Message is longer than " + SoupBinTcp.MAX_PAYLOAD_LENGTH + " bytes");
+    if (message.remaining() > data.remaining()) {
+      ByteBuffer newData = ByteBuffer.allocate(Math.max(data.capacity() * 2, data.position() + message.remaining()));
+      data.flip();
+      newData.put(data);
+      data = newData;
+      view = data.duplicate();
+    }
+    if (count == ends.length) {
+      int[] newEnds = new int[ends.length * 2];
+      System.arraycopy(ends, 0, newEnds, 0, count);
+      ends = newEnds;
+    }
+    int position = message.position();
+    data.put(message);
+    message.position(position);
+    ends[count++] = data.position();
+    return count;
+  }
+
+  @Override public ByteBuffer get(long sequenceNumber) {
+    if (sequenceNumber < 1 || sequenceNumber > count)
+      throw new IndexOutOfBoundsException("Sequence number: " + sequenceNumber + ", messages: " + count);
+    int index = (int) sequenceNumber - 1;
+    view.limit(ends[index]);
+    view.position(index == 0 ? 0 : ends[index - 1]);
+    return view;
+  }
+}
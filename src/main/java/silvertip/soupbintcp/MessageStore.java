@@ -0,0 +1,36 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The sequenced messages of a SoupBinTCP session, numbered from 1.
+ */
+public interface MessageStore {
+  String session();
+
+  /**
+   * Returns the sequence number the next message added to the store will get.
+   */
+  long nextSequenceNumber();
+
+  /**
+   * Returns message <code>sequenceNumber</code> between the position and limit
+   * of the returned buffer. The buffer may be reused by the next call.
+   */
+  ByteBuffer get(long sequenceNumber);
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.nio.ByteBuffer;
+
+import silvertip.BufferView;
+
+/**
+ * A SoupBinTCP packet. Like other pooled messages, a packet refers to the
+ * receive buffer instead of copying its payload and is only valid until
+ * <code>Callback.messages()</code> returns, unless it is retained with
+ * <code>Connection.retain()</code>, which copies the payload into a buffer
+ * the packet owns.
+ */
+public class Packet implements BufferView {
+  private ByteBuffer buffer;
+  private ByteBuffer ownBuffer;
+  private int payloadOffset;
+  private int payloadLength;
+  private byte type;
+
+  public byte type() {
+    return type;
+  }
+
+  /**
+   * Returns the buffer the packet was parsed from, or its own copy once it has
+   * been detached. The payload occupies
+   * <code>payloadLength()</code> bytes starting at
+   * <code>payloadOffset()</code>.
+   */
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  public int payloadOffset() {
+    return payloadOffset;
+  }
+
+  public int payloadLength() {
+    return payloadLength;
+  }
+
+  public byte payloadByte(int index) {
+    return buffer.get(payloadOffset + index);
+  }
+
+  /**
+   * Copies the payload to <code>target</code>.
+   */
+  public void getPayload(ByteBuffer target) {
+    for (int i = 0; i < payloadLength; i++)
+      target.put(buffer.get(payloadOffset + i));
+  }
+
+  /**
+   * Returns <code>length</code> bytes of the payload starting at
+   * <code>offset</code> as a string with surrounding spaces removed.
+   */
+  String alpha(int offset, int length) {
+    StringBuilder result = new StringBuilder(length);
+    for (int i = 0; i < length; i++)
+      result.append((char) (payloadByte(offset + i) & 0xff));
+    return result.toString().trim();
+  }
+
+  /**
+   * Returns the space-padded decimal number of <code>length</code> bytes at
+   * <code>offset</code> of the payload, or -1 if it is not a number.
+   */
+  long numeric(int offset, int length) {
+    long result = 0;
+    boolean digits = false;
+    for (int i = 0; i < length; i++) {
+      byte b = payloadByte(offset + i);
+      if (b == ' ' && !digits)
+        continue;
+      if (b < '0' || b > '9')
+        return b == ' ' ? result : -1;
+      result = result * 10 + (b - '0');
+      digits = true;
+    }
+    return digits ? result : -1;
+  }
+
+  @Override public void detach() {
+    if (buffer == ownBuffer)
+      return;
+    if (ownBuffer == null || ownBuffer.capacity() < payloadLength)
+      ownBuffer = ByteBuffer.allocate(payloadLength);
+    ByteBuffer payload = buffer.duplicate();
+    payload.limit(payloadOffset + payloadLength);
+    payload.position(payloadOffset);
+    ownBuffer.clear();
+    ownBuffer.put(payload);
+    ownBuffer.flip();
+    buffer = ownBuffer;
+    payloadOffset = 0;
+  }
+
+  void set(ByteBuffer buffer, byte type, int payloadOffset, int payloadLength) {
+    this.buffer = buffer;
+    this.type = type;
+    this.payloadOffset = payloadOffset;
+    this.payloadLength = payloadLength;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.nio.ByteBuffer;
+
+import silvertip.GarbledMessageException;
+import silvertip.MessageParser;
+import silvertip.PartialMessageException;
+
+/**
+ * Parses SoupBinTCP packets: a two-byte big-endian length, followed by a
+ * packet type and the payload.
+ */
+public class PacketParser implements MessageParser<Packet> {
+  private final PacketPool pool;
+
+  public PacketParser(PacketPool pool) {
+    this.pool = pool;
+  }
+
+  @Override public Packet parse(ByteBuffer buffer) throws GarbledMessageException, PartialMessageException {
+    int start = buffer.position();
+    if (buffer.remaining() < SoupBinTcp.LENGTH_FIELD_LENGTH)
+      throw new PartialMessageException();
+    int length = buffer.getShort(start) & 0xffff;
+    if (length == 0) {
+      buffer.position(start + SoupBinTcp.LENGTH_FIELD_LENGTH);
+      throw new GarbledMessageException("Packet without type");
+    }
+    int end = start + SoupBinTcp.LENGTH_FIELD_LENGTH + length;
+    if (end > buffer.limit())
+      throw new PartialMessageException();
+    Packet packet = pool.acquire();
+    packet.set(buffer, buffer.get(start + SoupBinTcp.LENGTH_FIELD_LENGTH), start + SoupBinTcp.HEADER_LENGTH,
+        length - 1);
+    buffer.position(end);
+    return packet;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import silvertip.MessagePool;
+
+/**
+ * A pool of <code>Packet</code> instances shared by <code>PacketParser</code>
+ * and the connection it parses for.
+ */
+public class PacketPool extends MessagePool<Packet> {
+  public PacketPool(int capacity) {
+    super(capacity);
+  }
+
+  @Override protected Packet newMessage() {
+    return new Packet();
+  }
+
+  @Override protected void reset(Packet packet) {
+    packet.set(null, (byte) 0, 0, 0);
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import silvertip.Connection;
+import silvertip.Events;
+import silvertip.MessageEncoder;
+import silvertip.Timeout;
+
+/**
+ * The server side of a SoupBinTCP session. After a successful login, the
+ * session sends the messages of its <code>MessageStore</code> from the
+ * sequence number the client requested. Later messages are sent whenever the
+ * application calls <code>catchUp()</code>, typically on every session right
+ * after adding messages to the store.
+ * <p>
+ * Messages are queued up to <code>CATCH_UP_BYTES</code> at a time; the rest
+ * follow once the connection has written them, so that a slow client does not
+ * make the server buffer the whole store.
+ */
+public class ServerSession extends Session {
+  public interface Authenticator {
+    boolean authenticate(String username, String password);
+  }
+
+  public interface Listener {
+    void loggedIn(ServerSession session, String username);
+
+    /**
+     * Called for every unsequenced message. <code>packet</code> is only valid
+     * for the duration of the call.
+     */
+    void unsequencedData(ServerSession session, Packet packet);
+
+    void loggedOut(ServerSession session);
+  }
+
+  public static final int CATCH_UP_BYTES = 64 * 1024;
+
+  private static final int LOGIN_REQUEST_LENGTH = SoupBinTcp.USERNAME_LENGTH + SoupBinTcp.PASSWORD_LENGTH
+      + SoupBinTcp.SESSION_LENGTH + SoupBinTcp.SEQUENCE_NUMBER_LENGTH;
+
+  private static final MessageEncoder<ServerSession> LOGIN_ACCEPTED = new MessageEncoder<ServerSession>() {
+    @Override public void encode(ServerSession session, ByteBuffer buffer) {
+      SoupBinTcp.putAlphaRight(buffer, session.store.session(), SoupBinTcp.SESSION_LENGTH);
+      SoupBinTcp.putNumeric(buffer, session.nextSequenceNumber, SoupBinTcp.SEQUENCE_NUMBER_LENGTH);
+    }
+  };
+
+  private static final MessageEncoder<Byte> LOGIN_REJECTED = new MessageEncoder<Byte>() {
+    @Override public void encode(Byte reason, ByteBuffer buffer) {
+      buffer.put(reason);
+    }
+  };
+
+  private final Runnable drained = new Runnable() {
+    @Override public void run() {
+      catchUp();
+    }
+  };
+  private final Runnable resume = new Runnable() {
+    @Override public void run() {
+      resumeTimer = null;
+      Connection<Packet> connection = connection();
+      if (connection != null && connection.pendingBytes() == 0)
+        catchUp();
+    }
+  };
+  private final Events events;
+  private final MessageStore store;
+  private final Authenticator authenticator;
+  private final Listener listener;
+  private long nextSequenceNumber;
+  private boolean loggedIn;
+  private boolean ending;
+  private Timeout resumeTimer;
+
+  public ServerSession(Events events, MessageStore store, Authenticator authenticator, Listener listener) {
+    super(events, SoupBinTcp.SERVER_HEARTBEAT);
+    this.events = events;
+    this.store = store;
+    this.authenticator = authenticator;
+    this.listener = listener;
+  }
+
+  public boolean isLoggedIn() {
+    return loggedIn;
+  }
+
+  /**
+   * Returns the sequence number of the next message to send to the client.
+   */
+  public long nextSequenceNumber() {
+    return nextSequenceNumber;
+  }
+
+  /**
+   * Sends the messages that have been added to the store since the last call.
+   * Does nothing before the client has logged in.
+   */
+  public void catchUp() {
+    Connection<Packet> connection = connection();
+    if (!loggedIn || connection == null || connection.isClosed())
+      return;
+    long end = store.nextSequenceNumber();
+    while (nextSequenceNumber < end) {
+      if (connection.pendingBytes() >= CATCH_UP_BYTES) {
+        /*
+         * If the socket does not accept the queued data, the drain listener
+         * resumes; if the data is only waiting to be flushed after the
+         * current callback, the next pass of the event loop does.
+         */
+        if (resumeTimer == null)
+          resumeTimer = events.schedule(resume, 0, TimeUnit.NANOSECONDS);
+        return;
+      }
+      send(SoupBinTcp.SEQUENCED_DATA, store.get(nextSequenceNumber++), SoupBinTcp.BYTES);
+    }
+    if (ending) {
+      send(SoupBinTcp.END_OF_SESSION);
+      close();
+    }
+  }
+
+  /**
+   * Tells the client that the session has ended, once the messages in the
+   * store have been sent, and closes the connection.
+   */
+  public void endOfSession() {
+    if (!loggedIn) {
+      send(SoupBinTcp.END_OF_SESSION);
+      close();
+      return;
+    }
+    ending = true;
+    catchUp();
+  }
+
+  @Override protected void packet(Packet packet) {
+    switch (packet.type()) {
+    case SoupBinTcp.UNSEQUENCED_DATA:
+      if (loggedIn)
+        listener.unsequencedData(this, packet);
+      break;
+    case SoupBinTcp.LOGIN_REQUEST:
+      login(packet);
+      break;
+    case SoupBinTcp.LOGOUT_REQUEST:
+      if (loggedIn)
+        listener.loggedOut(this);
+      loggedIn = false;
+      close();
+      break;
+    default:
+      break;
+    }
+  }
+
+  private void login(Packet packet) {
+    if (loggedIn || packet.payloadLength() != LOGIN_REQUEST_LENGTH) {
+      close();
+      return;
+    }
+    String username = packet.alpha(0, SoupBinTcp.USERNAME_LENGTH);
+    String password = packet.alpha(SoupBinTcp.USERNAME_LENGTH, SoupBinTcp.PASSWORD_LENGTH);
+    String session = packet.alpha(SoupBinTcp.USERNAME_LENGTH + SoupBinTcp.PASSWORD_LENGTH, SoupBinTcp.SESSION_LENGTH);
+    long sequenceNumber = packet.numeric(LOGIN_REQUEST_LENGTH - SoupBinTcp.SEQUENCE_NUMBER_LENGTH,
+        SoupBinTcp.SEQUENCE_NUMBER_LENGTH);
+
+    if (!authenticator.authenticate(username, password)) {
+      reject(SoupBinTcp.NOT_AUTHORIZED);
+      return;
+    }
+    if ((session.length() > 0 && !session.equals(store.session())) || sequenceNumber < 0) {
+      reject(SoupBinTcp.SESSION_NOT_AVAILABLE);
+      return;
+    }
+
+    long end = store.nextSequenceNumber();
+    nextSequenceNumber = sequenceNumber == 0 || sequenceNumber > end ? end : sequenceNumber;
+    loggedIn = true;
+    connection().setDrainListener(drained);
+    send(SoupBinTcp.LOGIN_ACCEPTED, this, LOGIN_ACCEPTED);
+    listener.loggedIn(this, username);
+    catchUp();
+  }
+
+  private void reject(byte reason) {
+    send(SoupBinTcp.LOGIN_REJECTED, reason, LOGIN_REJECTED);
+    close();
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import silvertip.Connection;
+import silvertip.Events;
+import silvertip.MessageEncoder;
+import silvertip.Timeout;
+
+/**
+ * The part of a SoupBinTCP session that is common to clients and servers:
+ * packet framing on send, heartbeats and the receive timeout. A heartbeat is
+ * sent whenever nothing has been sent for the heartbeat interval, and the
+ * connection is closed when nothing has been received for the timeout. Both
+ * are driven by a single <code>Events</code> timer that is rescheduled to the
+ * earlier of the two deadlines, so traffic does not cost timer operations.
+ * <p>
+ * A session is the callback of its connection and must be used with a
+ * <code>PacketParser</code>.
+ */
+public abstract class Session implements Connection.Callback<Packet> {
+  private final Events events;
+  private final byte heartbeatType;
+  private final MessageEncoder<Object> packetEncoder = new MessageEncoder<Object>() {
+    @Override public void encode(Object payload, ByteBuffer buffer) {
+      int start = buffer.position();
+      if (buffer.remaining() < SoupBinTcp.LENGTH_FIELD_LENGTH)
+        throw new BufferOverflowException();
+      buffer.position(start + SoupBinTcp.LENGTH_FIELD_LENGTH);
+      buffer.put(sendType);
+      if (payloadEncoder != null)
+        payloadEncoder.encode(payload, buffer);
+      int length = buffer.position() - start - SoupBinTcp.LENGTH_FIELD_LENGTH;
+      if (length > SoupBinTcp.MAX_PAYLOAD_LENGTH + 1)
+        throw new IllegalArgumentException("Payload is longer than " + SoupBinTcp.MAX_PAYLOAD_LENGTH + " bytes");
+      buffer.putShort(start, (short) length);
+    }
+  };
+  private final Runnable tick = new Runnable() {
+    @Override public void run() {
+      heartbeat();
+    }
+  };
+  private long heartbeatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(SoupBinTcp.DEFAULT_HEARTBEAT_INTERVAL_MILLIS);
+  private long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(SoupBinTcp.DEFAULT_TIMEOUT_MILLIS);
+  private byte sendType;
+  private MessageEncoder<Object> payloadEncoder;
+  private Connection<Packet> connection;
+  private Timeout timer;
+  private long lastSent;
+  private long lastReceived;
+
+  Session(Events events, byte heartbeatType) {
+    this.events = events;
+    this.heartbeatType = heartbeatType;
+  }
+
+  public void setHeartbeatInterval(long interval, TimeUnit unit) {
+    this.heartbeatIntervalNanos = unit.toNanos(interval);
+  }
+
+  /**
+   * Sets how long the session waits for data or heartbeats from the peer
+   * before it closes the connection.
+   */
+  public void setTimeout(long timeout, TimeUnit unit) {
+    this.timeoutNanos = unit.toNanos(timeout);
+  }
+
+  public Connection<Packet> connection() {
+    return connection;
+  }
+
+  /**
+   * Closes the connection once the queued packets have been written. No
+   * heartbeats are sent in the meantime.
+   */
+  public void close() {
+    if (timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+    if (connection != null)
+      connection.close();
+  }
+
+  @Override public void connected(Connection<Packet> connection) {
+    this.connection = connection;
+    long now = System.nanoTime();
+    lastSent = now;
+    lastReceived = now;
+    schedule(now);
+  }
+
+  @Override public void messages(Connection<Packet> connection, Iterator<Packet> packets) {
+    lastReceived = System.nanoTime();
+    while (packets.hasNext()) {
+      packet(packets.next());
+      if (connection.isClosed())
+        break;
+    }
+  }
+
+  @Override public void closed(Connection<Packet> connection) {
+    if (timer != null)
+      timer.cancel();
+    this.connection = null;
+  }
+
+  @Override public void garbledMessage(Connection<Packet> connection, String message, byte[] data) {
+    connection.close();
+  }
+
+  @Override public void sent(ByteBuffer buffer) {
+    lastSent = System.nanoTime();
+  }
+
+  protected abstract void packet(Packet packet);
+
+  void send(byte type) {
+    send(type, null, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  <M> void send(byte type, M payload, MessageEncoder<? super M> encoder) {
+    if (connection == null)
+      throw new IllegalStateException("Session is not connected");
+    sendType = type;
+    payloadEncoder = (MessageEncoder<Object>) encoder;
+    try {
+      connection.send(payload, packetEncoder);
+    } finally {
+      payloadEncoder = null;
+    }
+  }
+
+  private void heartbeat() {
+    if (connection == null || connection.isClosed())
+      return;
+    long now = System.nanoTime();
+    if (now - lastReceived >= timeoutNanos) {
+      connection.close();
+      return;
+    }
+    if (now - lastSent >= heartbeatIntervalNanos)
+      send(heartbeatType);
+    schedule(now);
+  }
+
+  private void schedule(long now) {
+    long deadline = Math.min(lastSent + heartbeatIntervalNanos, lastReceived + timeoutNanos);
+    timer = events.schedule(tick, Math.max(deadline - now, 0), TimeUnit.NANOSECONDS);
+  }
+}
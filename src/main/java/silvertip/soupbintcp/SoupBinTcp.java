@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.nio.ByteBuffer;
+
+import silvertip.MessageEncoder;
+
+/**
+ * Constants and field encoding of the SoupBinTCP 3.0 protocol.
+ */
+public final class SoupBinTcp {
+  public static final byte DEBUG = '+';
+  public static final byte LOGIN_ACCEPTED = 'A';
+  public static final byte LOGIN_REJECTED = 'J';
+  public static final byte SEQUENCED_DATA = 'S';
+  public static final byte SERVER_HEARTBEAT = 'H';
+  public static final byte END_OF_SESSION = 'Z';
+  public static final byte LOGIN_REQUEST = 'L';
+  public static final byte UNSEQUENCED_DATA = 'U';
+  public static final byte CLIENT_HEARTBEAT = 'R';
+  public static final byte LOGOUT_REQUEST = 'O';
+
+  public static final byte NOT_AUTHORIZED = 'A';
+  public static final byte SESSION_NOT_AVAILABLE = 'S';
+
+  public static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 1000;
+  public static final long DEFAULT_TIMEOUT_MILLIS = 15000;
+
+  public static final int MAX_PAYLOAD_LENGTH = 0xffff - 1;
+
+  static final int LENGTH_FIELD_LENGTH = 2;
+  static final int HEADER_LENGTH = 3;
+
+  static final int USERNAME_LENGTH = 6;
+  static final int PASSWORD_LENGTH = 10;
+  static final int SESSION_LENGTH = 10;
+  static final int SEQUENCE_NUMBER_LENGTH = 20;
+
+  static final MessageEncoder<ByteBuffer> BYTES = new MessageEncoder<ByteBuffer>() {
+    @Override public void encode(ByteBuffer payload, ByteBuffer buffer) {
+      int position = payload.position();
+      buffer.put(payload);
+      payload.position(position);
+    }
+  };
+
+  private SoupBinTcp() {
+  }
+
+  /**
+   * Writes <code>value</code> padded on the right with spaces to
+   * <code>length</code> bytes.
+   */
+  static void putAlphaLeft(ByteBuffer buffer, String value, int length) {
+    checkLength(value, length);
+    for (int i = 0; i < length; i++)
+      buffer.put(i < value.length() ? (byte) value.charAt(i) : (byte) ' ');
+  }
+
+  /**
+   * Writes <code>value</code> padded on the left with spaces to
+   * <code>length</code> bytes.
+   */
+  static void putAlphaRight(ByteBuffer buffer, String value, int length) {
+    checkLength(value, length);
+    for (int i = 0; i < length - value.length(); i++)
+      buffer.put((byte) ' ');
+    for (int i = 0; i < value.length(); i++)
+      buffer.put((byte) value.charAt(i));
+  }
+
+  static void putNumeric(ByteBuffer buffer, long value, int length) {
+    putAlphaRight(buffer, Long.toString(value), length);
+  }
+
+  private static void checkLength(String value, int length) {
+    if (value.length() > length)
+      throw new IllegalArgumentException("\"" + value + "\" is longer than " + length + " characters");
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdmissionControlTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final AdmissionControl admissionControl = new AdmissionControl();
+  private final InetAddress first = address(1);
+  private final InetAddress second = address(2);
+
+  @Test
+  public void maxConnections() throws Exception {
+    admissionControl.setMaxConnections(2);
+    Assert.assertTrue(admissionControl.admit(first, SECOND));
+    Assert.assertTrue(admissionControl.admit(second, SECOND));
+    Assert.assertFalse(admissionControl.admit(first, SECOND));
+    admissionControl.release();
+    Assert.assertTrue(admissionControl.admit(first, SECOND));
+    Assert.assertEquals(2, admissionControl.connections());
+    Assert.assertEquals(1, admissionControl.rejected());
+  }
+
+  @Test
+  public void acceptRate() throws Exception {
+    admissionControl.setAcceptRate(10, 2);
+    Assert.assertTrue(admissionControl.admit(first, SECOND));
+    Assert.assertTrue(admissionControl.admit(second, SECOND));
+    Assert.assertFalse(admissionControl.admit(first, SECOND));
+    Assert.assertTrue(admissionControl.admit(first, SECOND + SECOND / 10));
+  }
+
+  @Test
+  public void acceptRatePerAddress() throws Exception {
+    admissionControl.setAcceptRatePerAddress(1, 1);
+    Assert.assertTrue(admissionControl.admit(first, SECOND));
+    Assert.assertFalse(admissionControl.admit(first, SECOND));
+    Assert.assertTrue(admissionControl.admit(second, SECOND));
+    Assert.assertTrue(admissionControl.admit(first, 2 * SECOND));
+  }
+
+  @Test
+  public void rejectedAddressDoesNotConsumeGlobalRate() throws Exception {
+    admissionControl.setAcceptRate(1, 2);
+    admissionControl.setAcceptRatePerAddress(1, 1);
+    Assert.assertTrue(admissionControl.admit(first, SECOND));
+    for (int i = 0; i < 10; i++)
+      Assert.assertFalse(admissionControl.admit(first, SECOND));
+    Assert.assertTrue(admissionControl.admit(second, SECOND));
+  }
+
+  private static InetAddress address(int lastOctet) {
+    try {
+      return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) lastOctet });
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
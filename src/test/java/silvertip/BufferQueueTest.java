@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferQueueTest {
+  private static final MessageEncoder<String> ENCODER = new MessageEncoder<String>() {
+    @Override public void encode(String message, ByteBuffer buffer) {
+      buffer.put(message.getBytes());
+    }
+  };
+
+  private final BufferQueue queue = new BufferQueue();
+  private final StubChannel channel = new StubChannel();
+
+  @Test
+  public void encodesBetweenAddedBuffers() throws Exception {
+    queue.encode("AA", ENCODER, null);
+    channel.accept(1);
+    Assert.assertFalse(queue.flush(channel));
+    queue.add(ByteBuffer.wrap("BB".getBytes()));
+    queue.encode("CC", ENCODER, null);
+    queue.add(ByteBuffer.wrap("DD".getBytes()));
+    queue.encode("EE", ENCODER, null);
+    queue.encode("FF", ENCODER, null);
+    Assert.assertEquals(11, queue.pendingBytes());
+    channel.accept(Integer.MAX_VALUE);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals("AABBCCDDEEFF", channel.written());
+  }
+
+  @Test
+  public void encodesIntoNewBufferWhenFull() throws Exception {
+    char[] chars = new char[4000];
+    Arrays.fill(chars, 'A');
+    String large = new String(chars);
+    queue.encode(large, ENCODER, null);
+    channel.accept(0);
+    Assert.assertFalse(queue.flush(channel));
+    queue.add(ByteBuffer.wrap("B".getBytes()));
+    chars = new char[200];
+    Arrays.fill(chars, 'C');
+    String small = new String(chars);
+    queue.encode(small, ENCODER, null);
+    channel.accept(Integer.MAX_VALUE);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals(large + "B" + small, channel.written());
+  }
+}
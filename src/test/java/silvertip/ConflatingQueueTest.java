@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConflatingQueueTest {
+  private static final MessageEncoder<String> ENCODER = new MessageEncoder<String>() {
+    @Override public void encode(String message, ByteBuffer buffer) {
+      buffer.put(message.getBytes());
+    }
+  };
+
+  /*
+   * Messages are keyed by their first character; messages starting with a
+   * digit have no key.
+   */
+  private final ConflatingQueue queue = new ConflatingQueue(new ConflationKey<String>() {
+    @Override public Object key(String message) {
+      char first = message.charAt(0);
+      return Character.isDigit(first) ? null : first;
+    }
+  });
+  private final StubChannel channel = new StubChannel();
+
+  @Test
+  public void replacesPendingMessageInPlace() throws Exception {
+    queue.encode("A1", ENCODER, null);
+    queue.encode("B1", ENCODER, null);
+    queue.encode("A2", ENCODER, null);
+    queue.encode("A3", ENCODER, null);
+    Assert.assertEquals(2, queue.size());
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals("A3B1", channel.written());
+  }
+
+  @Test
+  public void doesNotReplaceMessageBeingWritten() throws Exception {
+    queue.encode("A1", ENCODER, null);
+    channel.accept(1);
+    Assert.assertFalse(queue.flush(channel));
+    queue.encode("A2", ENCODER, null);
+    queue.encode("A3", ENCODER, null);
+    channel.accept(Integer.MAX_VALUE);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals("A1A3", channel.written());
+  }
+
+  @Test
+  public void keepsMessagesWithoutKey() throws Exception {
+    queue.encode("1", ENCODER, null);
+    queue.encode("1", ENCODER, null);
+    queue.add(ByteBuffer.wrap("XY".getBytes()));
+    Assert.assertEquals(3, queue.size());
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals("11XY", channel.written());
+  }
+
+  @Test
+  public void growsSlotForLargeMessages() throws Exception {
+    StringBuilder message = new StringBuilder("A");
+    while (message.length() < 1000)
+      message.append('x');
+    queue.encode("A1", ENCODER, null);
+    queue.encode(message.toString(), ENCODER, null);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals(message.toString(), channel.written());
+  }
+
+  @Test
+  public void capsFreeSlots() throws Exception {
+    for (int i = 0; i < 1000; i++)
+      queue.encode("1", ENCODER, null);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals(64, queue.freeSlots());
+
+    for (int i = 0; i < 100; i++)
+      queue.encode(String.valueOf((char) ('a' + i)), ENCODER, null);
+    Assert.assertTrue(queue.flush(channel));
+    for (int i = 0; i < 1000; i++)
+      queue.encode("1", ENCODER, null);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals(100, queue.freeSlots());
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionCloseTest {
+  private static final int LENGTH = 16 * 1024 * 1024;
+
+  private final List<Connection<Object>> connections = new ArrayList<Connection<Object>>();
+  private int closed;
+  private Events events;
+  private Server server;
+  private Socket client;
+
+  @Before
+  public void setUp() throws Exception {
+    int port = new Random(System.currentTimeMillis()).nextInt(1024) + 9216;
+    events = Events.open();
+    server = Server.accept(port, new Server.ConnectionFactory<Object>() {
+      @Override public Connection<Object> newConnection(SocketChannel channel) {
+        Connection<Object> connection = new Connection<Object>(channel, null, new Callback());
+        connections.add(connection);
+        return connection;
+      }
+    });
+    events.register(server);
+    client = new Socket("localhost", port);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (connections.isEmpty() && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertEquals(1, connections.size());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.close();
+    events.close();
+  }
+
+  @Test
+  public void drainsQueueBeforeClosing() throws Exception {
+    final AtomicLong received = new AtomicLong();
+    Thread reader = new Thread() {
+      @Override public void run() {
+        try {
+          InputStream in = client.getInputStream();
+          byte[] buffer = new byte[64 * 1024];
+          int len;
+          while ((len = in.read(buffer)) >= 0)
+            received.addAndGet(len);
+        } catch (Exception e) {
+        }
+      }
+    };
+    Connection<Object> connection = connections.get(0);
+    connection.send(ByteBuffer.allocate(LENGTH));
+    connection.close();
+    Assert.assertTrue(connection.isClosed());
+    Assert.assertEquals(0, closed);
+    reader.start();
+
+    awaitClosed();
+    reader.join(5000);
+    Assert.assertEquals(LENGTH, received.get());
+
+    connection.close();
+    connection.closeNow();
+    Assert.assertEquals(1, closed);
+  }
+
+  @Test
+  public void dropsQueueWhenLingerExpires() throws Exception {
+    Connection<Object> connection = connections.get(0);
+    connection.setLinger(100, TimeUnit.MILLISECONDS);
+    connection.send(ByteBuffer.allocate(LENGTH));
+    long start = System.nanoTime();
+    connection.close();
+    Assert.assertEquals(0, closed);
+
+    awaitClosed();
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertEquals(0, connection.metrics().get("TxQueueBytes"));
+  }
+
+  @Test
+  public void closesImmediately() throws Exception {
+    Connection<Object> connection = connections.get(0);
+    connection.send(ByteBuffer.allocate(LENGTH));
+    connection.closeNow();
+    Assert.assertEquals(1, closed);
+    Assert.assertTrue(connection.isClosed());
+  }
+
+  private void awaitClosed() throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (closed == 0 && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertEquals(1, closed);
+  }
+
+  private class Callback implements Connection.Callback<Object> {
+    @Override public void connected(Connection<Object> connection) {
+    }
+
+    @Override public void messages(Connection<Object> connection, Iterator<Object> messages) {
+    }
+
+    @Override public void closed(Connection<Object> connection) {
+      closed++;
+    }
+
+    @Override public void garbledMessage(Connection<Object> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
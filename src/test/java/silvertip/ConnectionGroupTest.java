@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.DataInputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionGroupTest {
+  private final List<Socket> clients = new ArrayList<Socket>();
+  private final List<Connection<Object>> accepted = new ArrayList<Connection<Object>>();
+  private final ConnectionGroup group = new ConnectionGroup();
+  private Events events;
+  private Server server;
+
+  @Before
+  public void setUp() throws Exception {
+    int port = new Random(System.currentTimeMillis()).nextInt(1024) + 5120;
+    events = Events.open();
+    server = Server.accept(port, new Server.ConnectionFactory<Object>() {
+      @Override public Connection<Object> newConnection(SocketChannel channel) {
+        Connection<Object> connection = new Connection<Object>(channel, null, new Callback());
+        accepted.add(connection);
+        group.add(connection);
+        return connection;
+      }
+    });
+    events.register(server);
+    for (int i = 0; i < 3; i++)
+      clients.add(new Socket("localhost", port));
+    while (group.size() < 3)
+      events.process(100);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (Socket client : clients)
+      client.close();
+    server.close();
+    events.close();
+  }
+
+  @Test
+  public void broadcastsToAllConnections() throws Exception {
+    for (long i = 0; i < 1000; i++) {
+      group.broadcast(i, new MessageEncoder<Long>() {
+        @Override public void encode(Long message, ByteBuffer buffer) {
+          buffer.putLong(message);
+        }
+      });
+    }
+    for (Socket client : clients) {
+      DataInputStream in = new DataInputStream(client.getInputStream());
+      for (long i = 0; i < 1000; i++)
+        Assert.assertEquals(i, in.readLong());
+    }
+  }
+
+  @Test
+  public void releasesSharedBufferOnceWritten() throws Exception {
+    SharedBuffer buffer = new SharedBuffer(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+    group.broadcast(buffer);
+
+    Assert.assertEquals(1, buffer.refCount());
+    Assert.assertEquals(3, buffer.buffer().remaining());
+    for (Socket client : clients) {
+      byte[] data = new byte[3];
+      new DataInputStream(client.getInputStream()).readFully(data);
+      Assert.assertEquals(3, data[2]);
+    }
+  }
+
+  @Test
+  public void holdsSharedBufferUntilSlowConnectionWritesIt() throws Exception {
+    SharedBuffer buffer = new SharedBuffer(ByteBuffer.allocateDirect(16 * 1024 * 1024));
+    group.broadcast(buffer);
+    Assert.assertTrue(buffer.refCount() > 1);
+
+    for (Socket client : clients)
+      client.close();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (buffer.refCount() > 1 && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertEquals(1, buffer.refCount());
+  }
+
+  @Test
+  public void dropsOverflowingConnectionImmediately() throws Exception {
+    Connection<Object> slow = accepted.get(1);
+    slow.setTransmitRingCapacity(64 * 1024);
+    SharedBuffer buffer = new SharedBuffer(ByteBuffer.allocateDirect(32 * 1024));
+    for (int i = 0; i < 10000 && group.size() == 3; i++) {
+      buffer.buffer().clear();
+      group.broadcast(buffer);
+    }
+
+    Assert.assertEquals(2, group.size());
+    Assert.assertTrue(slow.closed);
+  }
+
+  @Test
+  public void dropsClosedConnections() throws Exception {
+    accepted.get(1).close();
+    group.broadcast(new SharedBuffer(ByteBuffer.wrap(new byte[] { 1 })));
+
+    Assert.assertEquals(2, group.size());
+  }
+
+  private static class Callback implements Connection.Callback<Object> {
+    @Override public void connected(Connection<Object> connection) {
+    }
+
+    @Override public void messages(Connection<Object> connection, Iterator<Object> messages) {
+    }
+
+    @Override public void closed(Connection<Object> connection) {
+    }
+
+    @Override public void garbledMessage(Connection<Object> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+  private static final MessageEncoder<String> ENCODER = new MessageEncoder<String>() {
+    @Override public void encode(String message, ByteBuffer buffer) {
+      buffer.put(message.getBytes());
+      buffer.put((byte) '\n');
+    }
+  };
+
+  private static final ConnectionPool.ParserFactory<ByteBuffer> PARSERS = new ConnectionPool.ParserFactory<ByteBuffer>() {
+    @Override public MessageParser<ByteBuffer> newParser() {
+      return new DelimiterParser((byte) '\n');
+    }
+  };
+
+  private final List<Connection<ByteBuffer>> accepted = new ArrayList<Connection<ByteBuffer>>();
+  private final Map<Connection<ByteBuffer>, Integer> received = new HashMap<Connection<ByteBuffer>, Integer>();
+  private int responses;
+  private int port;
+  private Events events;
+  private Server server;
+  private ConnectionPool<ByteBuffer> pool;
+
+  @Before
+  public void setUp() throws Exception {
+    port = new Random(System.currentTimeMillis()).nextInt(1024) + 10240;
+    events = Events.open();
+    pool = new ConnectionPool<ByteBuffer>(events, PARSERS, new ClientCallback());
+    pool.setReconnectDelay(20, TimeUnit.MILLISECONDS);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.close();
+    if (server != null)
+      server.close();
+    events.close();
+  }
+
+  @Test
+  public void roundRobin() throws Exception {
+    listen();
+    pool.add(new InetSocketAddress("localhost", port), 3);
+    awaitConnected(3);
+    for (int i = 0; i < 6; i++)
+      Assert.assertTrue(pool.send("request", ENCODER));
+    awaitResponses(6);
+    for (Connection<ByteBuffer> connection : accepted)
+      Assert.assertEquals(Integer.valueOf(2), received.get(connection));
+  }
+
+  @Test
+  public void skipsBackloggedMembers() throws Exception {
+    listen();
+    pool.add(new InetSocketAddress("localhost", port), 2);
+    awaitConnected(2);
+    pool.setMaxBacklog(0);
+    Connection<ByteBuffer> first = pool.select();
+    first.send(ByteBuffer.allocate(16 * 1024 * 1024));
+    Assert.assertTrue(first.pendingBytes() > 0);
+    for (int i = 0; i < 4; i++)
+      Assert.assertNotSame(first, pool.select());
+  }
+
+  @Test
+  public void replacesFailedMembers() throws Exception {
+    pool.add(new InetSocketAddress("localhost", port), 2);
+    for (int i = 0; i < 5; i++)
+      events.process(10);
+    Assert.assertEquals(0, pool.connected());
+    Assert.assertNull(pool.select());
+    Assert.assertFalse(pool.send("request", ENCODER));
+
+    listen();
+    awaitConnected(2);
+    accepted.get(0).closeNow();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (accepted.size() < 3 && System.currentTimeMillis() < deadline)
+      events.process(10);
+    awaitConnected(2);
+    Assert.assertEquals(2, pool.size());
+  }
+
+  private void listen() throws Exception {
+    server = Server.accept(port, new Server.ConnectionFactory<ByteBuffer>() {
+      @Override public Connection<ByteBuffer> newConnection(SocketChannel channel) {
+        Connection<ByteBuffer> connection = new Connection<ByteBuffer>(channel, new DelimiterParser((byte) '\n'),
+            new ServerCallback());
+        accepted.add(connection);
+        return connection;
+      }
+    });
+    events.register(server);
+  }
+
+  private void awaitConnected(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((pool.connected() < count || accepted.size() < count) && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertEquals(count, pool.connected());
+  }
+
+  private void awaitResponses(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (responses < count && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertEquals(count, responses);
+  }
+
+  private class ServerCallback implements Connection.Callback<ByteBuffer> {
+    @Override public void connected(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+      while (messages.hasNext()) {
+        messages.next();
+        Integer count = received.get(connection);
+        received.put(connection, count == null ? 1 : count + 1);
+        connection.send("response", ENCODER);
+      }
+    }
+
+    @Override public void closed(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void garbledMessage(Connection<ByteBuffer> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+
+  private class ClientCallback implements Connection.Callback<ByteBuffer> {
+    @Override public void connected(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+      while (messages.hasNext()) {
+        messages.next();
+        responses++;
+      }
+    }
+
+    @Override public void closed(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void garbledMessage(Connection<ByteBuffer> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
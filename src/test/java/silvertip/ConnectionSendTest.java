@@ -15,11 +15,13 @@
  */
 package silvertip;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -40,8 +42,150 @@ public class ConnectionSendTest {
    */
   @Test
   public void testPartialWrite() throws Exception {
+    testPartialWrite(new Callback());
+  }
+
+  /*
+   * Same as above but the messages are encoded directly into the outbound
+   * buffer of the connection, so that they share buffers and occasionally do
+   * not fit into the remaining space of the current one.
+   */
+  @Test
+  public void testPartialWriteWithEncoder() throws Exception {
+    testPartialWrite(new Callback() {
+      @Override protected void send(Connection<Message> connection, Message message) {
+        connection.send(message, new MessageEncoder<Message>() {
+          @Override public void encode(Message message, ByteBuffer buffer) {
+            buffer.put(message.payload());
+          }
+        });
+      }
+    });
+  }
+
+  /*
+   * Same as above but the outbound data is copied into an off-heap transmit
+   * ring that is large enough to hold everything sent by the test.
+   */
+  @Test
+  public void testPartialWriteWithTransmitRing() throws Exception {
+    testPartialWrite(new Callback() {
+      @Override public void connected(Connection<Message> connection) {
+        connection.setTransmitRingCapacity(1024 * 1024);
+        super.connected(connection);
+      }
+    });
+  }
+
+  /*
+   * Same as above but both ends compress the byte stream.
+   */
+  @Test
+  public void testPartialWriteWithCompression() throws Exception {
+    testPartialWrite(new Callback() {
+      @Override public void connected(Connection<Message> connection) {
+        connection.setCompressionCodec(new LzCodec());
+        super.connected(connection);
+      }
+    }, true);
+  }
+
+  /*
+   * Compressed frames refer to the ones sent before them, so an urgent message
+   * must not overtake frames that are still queued. Urgent sends are rejected
+   * on compressed connections and the queued frames stay decodable.
+   */
+  @Test
+  public void urgentSendsAreRejectedWithCompression() throws Exception {
+    StubChannel output = new StubChannel();
+    Connection<Message> connection = stubConnection(output);
+    connection.setCompressionCodec(new LzCodec());
+    MessageEncoder<byte[]> encoder = new MessageEncoder<byte[]>() {
+      @Override public void encode(byte[] message, ByteBuffer buffer) {
+        buffer.put(message);
+      }
+    };
+    byte[] message = new byte[256];
+    for (int i = 0; i < message.length; i++)
+      message[i] = (byte) ('a' + i % 7);
+    output.accept(16);
+    connection.send(message, encoder);
+    try {
+      connection.send(message, encoder, Connection.Priority.URGENT);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+    }
+    connection.send(message, encoder);
+    output.accept(Integer.MAX_VALUE);
+    connection.write();
+
+    ByteBuffer decoded = ByteBuffer.allocate(1024);
+    Assert.assertEquals(0, new LzCodec().decode(output.bytes(), decoded));
+    decoded.flip();
+    Assert.assertEquals(2 * message.length, decoded.remaining());
+    for (int i = 0; i < decoded.remaining(); i++)
+      Assert.assertEquals(message[i % message.length], decoded.get(i));
+  }
+
+  /*
+   * A connection with a transmit ring promises that buffers can be reused as
+   * soon as send() returns, in the urgent lane as well.
+   */
+  @Test
+  public void urgentSendCopiesNextToTransmitRing() throws Exception {
+    StubChannel output = new StubChannel();
+    Connection<Message> connection = stubConnection(output);
+    connection.setTransmitRingCapacity(1024);
+    output.accept(0);
+    ByteBuffer buffer = ByteBuffer.allocate(4);
+    buffer.put("AAAA".getBytes()).flip();
+    connection.send(buffer);
+    buffer.clear();
+    buffer.put("UUUU".getBytes()).flip();
+    connection.send(buffer, Connection.Priority.URGENT);
+    buffer.clear();
+    buffer.put("XXXX".getBytes()).flip();
+    connection.send(buffer);
+    output.accept(Integer.MAX_VALUE);
+    connection.write();
+
+    Assert.assertEquals("UUUUAAAAXXXX", output.written());
+  }
+
+  @Test
+  public void dropsSendsAfterClose() throws Exception {
+    StubChannel output = new StubChannel();
+    Connection<Message> connection = stubConnection(output);
+    connection.setTransmitRingCapacity(1024);
+    output.accept(0);
+    connection.send("AAAA".getBytes());
+    connection.closeNow();
+    Assert.assertEquals(0, connection.pendingBytes());
+
+    SharedBuffer buffer = new SharedBuffer(ByteBuffer.wrap("BBBB".getBytes()));
+    connection.send(buffer);
+    connection.send("CCCC".getBytes());
+    Assert.assertEquals(1, buffer.refCount());
+    Assert.assertEquals(0, connection.pendingBytes());
+    Assert.assertEquals("", output.written());
+  }
+
+  private Connection<Message> stubConnection(StubChannel output) {
+    Connection<Message> connection = new Connection<Message>(null, null, output, null, new Callback() {
+      @Override public void connected(Connection<Message> connection) {
+      }
+    });
+    connection.replay(Channels.newChannel(new ByteArrayInputStream(new byte[0])), output);
+    return connection;
+  }
+
+  private void testPartialWrite(Callback callback) throws Exception {
+    testPartialWrite(callback, false);
+  }
+
+  private void testPartialWrite(Callback callback, boolean compress) throws Exception {
     final int port = new Random(System.currentTimeMillis()).nextInt(1024) + 1024;
-    final StubServer server = new StubServer(port);
+    final StubServer server = new StubServer(port, compress);
     Thread serverThread = new Thread(server);
     serverThread.start();
     server.awaitForStart();
@@ -51,7 +195,6 @@ public class ConnectionSendTest {
         return null;
       }
     };
-    final Callback callback = new Callback();
     final Events events = Events.open();
     Connection<Message> connection = Connection.connect(new InetSocketAddress("localhost", port), parser, callback);
     events.register(connection);
@@ -63,7 +206,7 @@ public class ConnectionSendTest {
     Assert.assertEquals(callback.total, server.total);
   }
 
-  private final class Callback implements Connection.Callback<Message> {
+  private class Callback implements Connection.Callback<Message> {
     private int start;
     private int total;
 
@@ -79,7 +222,7 @@ public class ConnectionSendTest {
           start = end;
         }
         for (Message m : messages) {
-          connection.send(m);
+          send(connection, m);
           total += m.toByteBuffer().limit();
         }
       }
@@ -87,6 +230,10 @@ public class ConnectionSendTest {
       connection.close();
     }
 
+    protected void send(Connection<Message> connection, Message message) {
+      connection.send(message);
+    }
+
     private Message newMessage(int start, int end) {
       byte[] m = new byte[end-start];
       int i = 0;
@@ -114,11 +261,13 @@ public class ConnectionSendTest {
     private final CountDownLatch serverStopped = new CountDownLatch(1);
     private final CountDownLatch serverStarted = new CountDownLatch(1);
     private final int port;
+    private final boolean compress;
     private int total;
     private boolean closed;
 
-    private StubServer(int port) {
+    private StubServer(int port, boolean compress) {
       this.port = port;
+      this.compress = compress;
     }
 
     public void awaitForStart() throws InterruptedException {
@@ -154,12 +303,15 @@ public class ConnectionSendTest {
       };
       Server server = null;
       try {
-        serverStarted.countDown();
         server = Server.accept(port, new Server.ConnectionFactory<Integer>() {
           @Override public Connection<Integer> newConnection(SocketChannel channel) {
-            return new Connection(channel, parser, callback);
+            Connection<Integer> connection = new Connection<Integer>(channel, parser, callback);
+            if (compress)
+              connection.setCompressionCodec(new LzCodec());
+            return connection;
           }
         });
+        serverStarted.countDown();
         Events events = Events.open();
         events.register(server);
         while (!closed)
@@ -174,6 +326,7 @@ public class ConnectionSendTest {
             throw new RuntimeException(e);
           }
         }
+        serverStarted.countDown();
         serverStopped.countDown();
       }
     }
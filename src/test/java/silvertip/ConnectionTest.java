@@ -19,7 +19,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -29,6 +32,10 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Assert;
 import org.junit.Test;
 
+import silvertip.fix.FixMessage;
+import silvertip.fix.FixMessagePool;
+import silvertip.fix.FixParser;
+
 public class ConnectionTest {
   private static final int IDLE_MSEC = 50;
 
@@ -117,6 +124,244 @@ public class ConnectionTest {
     Assert.assertEquals(message, receivedMessages.get());
   }
 
+  @Test
+  public void pooledMessages() throws Exception {
+    final String message = "ABC";
+    final AtomicReference<String> receivedMessages = new AtomicReference<String>("");
+    final AtomicReference<Message> retainedMessage = new AtomicReference<Message>(null);
+    final MessagePool<Message> pool = new MessagePool<Message>(16) {
+      @Override protected Message newMessage() {
+        return new Message(new byte[1]);
+      }
+    };
+
+    Callback callback = new Callback() {
+      @Override public void connected(Connection<Message> connection) {
+        connection.setMessagePool(pool);
+      }
+
+      @Override public void messages(Connection<Message> connection, Iterator<Message> messages) {
+        while (messages.hasNext()) {
+          Message m = messages.next();
+          if (retainedMessage.get() == null) {
+            retainedMessage.set(m);
+            connection.retain(m);
+          }
+          receivedMessages.set(receivedMessages.get() + m);
+        }
+
+        if (receivedMessages.get().length() == message.length())
+          connection.close();
+      }
+    };
+
+    MessageParser<Message> parser = new MessageParser<Message>() {
+      @Override public Message parse(ByteBuffer buffer) throws PartialMessageException {
+        Message m = pool.acquire();
+        m.payload()[0] = buffer.get();
+        return m;
+      }
+    };
+
+    StubChannel channel = new StubChannel();
+    channel.receive(message);
+    stubConnection(channel, parser, callback).read();
+
+    Assert.assertEquals(message, receivedMessages.get());
+    Assert.assertEquals("A", retainedMessage.get().toString());
+    Assert.assertEquals(message.length() - 1, pool.size());
+  }
+
+  /*
+   * Messages that are slices of the receive buffer must stay intact until they
+   * have been dispatched, even though a partial message follows them.
+   */
+  @Test
+  public void slicedMessages() throws Exception {
+    final String message = "AB\nCD\nEF";
+    final List<ByteBuffer> slices = new ArrayList<ByteBuffer>();
+    final AtomicReference<String> receivedMessages = new AtomicReference<String>("");
+
+    Callback callback = new Callback() {
+      @Override public void messages(Connection<Message> connection, Iterator<Message> messages) {
+        for (ByteBuffer slice : slices) {
+          byte[] data = new byte[slice.remaining()];
+          slice.get(data);
+          receivedMessages.set(receivedMessages.get() + new String(data));
+        }
+        slices.clear();
+
+        if (receivedMessages.get().length() == 4)
+          connection.close();
+      }
+    };
+
+    MessageParser<Message> parser = new MessageParser<Message>() {
+      private final DelimiterParser delimiterParser = new DelimiterParser((byte) '\n');
+
+      @Override public Message parse(ByteBuffer buffer) throws GarbledMessageException, PartialMessageException {
+        slices.add(delimiterParser.parse(buffer));
+        return new Message(new byte[0]);
+      }
+    };
+
+    sendMessage(message, callback, parser);
+
+    Assert.assertEquals("ABCD", receivedMessages.get());
+  }
+
+  @Test
+  public void largeMessage() throws Exception {
+    char[] chars = new char[256 * 1024];
+    Arrays.fill(chars, 'x');
+    final String message = new String(chars) + "\n";
+    final AtomicReference<String> receivedMessage = new AtomicReference<String>(null);
+
+    Callback callback = new Callback() {
+      @Override public void messages(Connection<Message> connection, Iterator<Message> messages) {
+        receivedMessage.set(messages.next().toString());
+      }
+    };
+
+    MessageParser<Message> parser = new MessageParser<Message>() {
+      @Override public Message parse(ByteBuffer buffer) throws PartialMessageException {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+          if (buffer.get(i) == '\n') {
+            byte[] message = new byte[i + 1 - buffer.position()];
+            buffer.get(message);
+            return new Message(message);
+          }
+        }
+        throw new PartialMessageException();
+      }
+    };
+
+    StubChannel channel = new StubChannel();
+    for (int i = 0; i < message.length(); i += 10000)
+      channel.receive(message.substring(i, Math.min(i + 10000, message.length())));
+    Connection<Message> connection = stubConnection(channel, parser, callback);
+    while (receivedMessage.get() == null && channel.reads() < 1000)
+      connection.read();
+
+    Assert.assertEquals(message, receivedMessage.get());
+    Assert.assertEquals(4096, connection.rxBufferCapacity());
+  }
+
+  @Test
+  public void readStopsAtByteBudget() throws Exception {
+    StubChannel channel = new StubChannel();
+    channel.receive(lines(3 * 256));
+    LineCounter counter = new LineCounter();
+    Connection<ByteBuffer> connection = stubConnection(channel, new DelimiterParser((byte) '\n'), counter);
+    connection.setReadBudget(4096, Integer.MAX_VALUE);
+    connection.read();
+
+    Assert.assertEquals(1, channel.reads());
+    Assert.assertEquals(256, counter.lines);
+  }
+
+  @Test
+  public void readStopsAtMessageBudget() throws Exception {
+    StubChannel channel = new StubChannel();
+    channel.receive(lines(3 * 256));
+    LineCounter counter = new LineCounter();
+    Connection<ByteBuffer> connection = stubConnection(channel, new DelimiterParser((byte) '\n'), counter);
+    connection.setReadBudget(Integer.MAX_VALUE, 300);
+    connection.read();
+
+    Assert.assertEquals(2, channel.reads());
+    Assert.assertEquals(512, counter.lines);
+
+    connection.read();
+
+    Assert.assertEquals(3 * 256, counter.lines);
+  }
+
+  @Test
+  public void shortReadEndsReadLoop() throws Exception {
+    StubChannel channel = new StubChannel();
+    channel.receive(lines(1));
+    channel.receive(lines(1));
+    LineCounter counter = new LineCounter();
+    Connection<ByteBuffer> connection = stubConnection(channel, new DelimiterParser((byte) '\n'), counter);
+    connection.read();
+
+    Assert.assertEquals(1, channel.reads());
+    Assert.assertEquals(1, counter.lines);
+
+    connection.read();
+
+    Assert.assertEquals(2, channel.reads());
+    Assert.assertEquals(2, counter.lines);
+  }
+
+  @Test
+  public void messageLargerThanMaxReceiveBufferSize() throws Exception {
+    final AtomicReference<byte[]> garbledMessageData = new AtomicReference<byte[]>(null);
+    Connection.Callback<FixMessage> callback = new Connection.Callback<FixMessage>() {
+      @Override public void connected(Connection<FixMessage> connection) {}
+
+      @Override public void messages(Connection<FixMessage> connection, Iterator<FixMessage> messages) {
+        Assert.fail("messages detected");
+      }
+
+      @Override public void closed(Connection<FixMessage> connection) {}
+
+      @Override public void garbledMessage(Connection<FixMessage> connection, String message, byte[] data) {
+        garbledMessageData.set(data);
+      }
+
+      @Override public void sent(ByteBuffer buffer) { }
+    };
+    char[] chars = new char[8192];
+    Arrays.fill(chars, 'x');
+    StubChannel channel = new StubChannel();
+    channel.receive("8=FIX.4.2" + new String(chars));
+    Connection<FixMessage> connection = stubConnection(channel, new FixParser(new FixMessagePool(1)), callback);
+    connection.setMaxReceiveBufferSize(4096);
+    connection.read();
+
+    Assert.assertEquals(4096, garbledMessageData.get().length);
+    Assert.assertTrue(connection.isClosed());
+  }
+
+  /*
+   * A retained FIX message must keep its values after the receive buffer has
+   * been reused for the next message.
+   */
+  @Test
+  public void retainedMessageOutlivesReceiveBuffer() throws Exception {
+    final AtomicReference<FixMessage> retainedMessage = new AtomicReference<FixMessage>(null);
+    Connection.Callback<FixMessage> callback = new Connection.Callback<FixMessage>() {
+      @Override public void connected(Connection<FixMessage> connection) {}
+
+      @Override public void messages(Connection<FixMessage> connection, Iterator<FixMessage> messages) {
+        FixMessage message = messages.next();
+        if (retainedMessage.get() == null) {
+          retainedMessage.set(message);
+          connection.retain(message);
+        }
+      }
+
+      @Override public void closed(Connection<FixMessage> connection) {}
+
+      @Override public void garbledMessage(Connection<FixMessage> connection, String message, byte[] data) {
+        Assert.fail(message);
+      }
+
+      @Override public void sent(ByteBuffer buffer) { }
+    };
+    StubChannel channel = new StubChannel();
+    channel.receive(fixMessage("35=D|49=FIRST|"));
+    channel.receive(fixMessage("35=F|49=OTHER|"));
+    Connection<FixMessage> connection = stubConnection(channel, new FixParser(new FixMessagePool(2)), callback);
+    connection.read();
+    connection.read();
+
+    Assert.assertEquals('D', retainedMessage.get().getChar(35));
+    Assert.assertEquals("FIRST", retainedMessage.get().getString(49));
+  }
+
   @Test
   public void closed() throws Exception {
     final String message = "The quick brown fox jumps over the lazy dog";
@@ -164,6 +409,55 @@ public class ConnectionTest {
     Assert.assertTrue("callback not called", connectionClosed.get());
   }
 
+  /*
+   * Returns count lines of 16 bytes each, so that 256 of them fill the
+   * receive buffer.
+   */
+  private static String lines(int count) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < count; i++)
+      result.append("0123456789abcde\n");
+    return result.toString();
+  }
+
+  /*
+   * Builds a FIX.4.2 message around body, in which '|' stands for SOH.
+   */
+  private static String fixMessage(String body) {
+    String data = "8=FIX.4.2|9=" + body.length() + "|" + body;
+    int checksum = 0;
+    for (char c : data.replace('|', '\u0001').toCharArray())
+      checksum += c;
+    return (data + String.format("10=%03d|", checksum & 0xff)).replace('|', '\u0001');
+  }
+
+  private static class LineCounter implements Connection.Callback<ByteBuffer> {
+    private int lines;
+
+    @Override public void connected(Connection<ByteBuffer> connection) {}
+
+    @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+      while (messages.hasNext()) {
+        messages.next();
+        lines++;
+      }
+    }
+
+    @Override public void closed(Connection<ByteBuffer> connection) {}
+
+    @Override public void garbledMessage(Connection<ByteBuffer> connection, String message, byte[] data) {
+      Assert.fail("garbled message detected");
+    }
+
+    @Override public void sent(ByteBuffer buffer) { }
+  }
+
+  private <T> Connection<T> stubConnection(StubChannel channel, MessageParser<T> parser, Connection.Callback<T> callback) {
+    Connection<T> connection = new Connection<T>(null, channel, channel, parser, callback);
+    connection.replay(channel, channel);
+    return connection;
+  }
+
   private void sendMessage(String message, Connection.Callback<Message> callback, MessageParser<Message> parser)
       throws InterruptedException, IOException {
     sendMessage(message, callback, parser, 0, 1);
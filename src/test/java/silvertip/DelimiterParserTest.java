@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DelimiterParserTest {
+  @Test
+  public void parsesFramesAsSlices() throws Exception {
+    DelimiterParser parser = new DelimiterParser((byte) '\n');
+    ByteBuffer buffer = ByteBuffer.wrap("PING\nPONG\nPA".getBytes());
+
+    Assert.assertEquals("PING", string(parser.parse(buffer)));
+    Assert.assertEquals("PONG", string(parser.parse(buffer)));
+    try {
+      parser.parse(buffer);
+      Assert.fail();
+    } catch (PartialMessageException e) {
+    }
+    Assert.assertEquals(10, buffer.position());
+  }
+
+  @Test
+  public void parsesMultiByteDelimiter() throws Exception {
+    DelimiterParser parser = new DelimiterParser("\r\n".getBytes());
+    ByteBuffer buffer = ByteBuffer.wrap("a\rb\n\r\rcdefghijk\r\n\r\n".getBytes());
+
+    Assert.assertEquals("a\rb\n\r\rcdefghijk", string(parser.parse(buffer)));
+    Assert.assertEquals("", string(parser.parse(buffer)));
+    Assert.assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void skipsFramesThatAreTooLong() throws Exception {
+    DelimiterParser parser = new DelimiterParser((byte) '\n');
+    parser.setMaxFrameLength(4);
+    ByteBuffer buffer = ByteBuffer.wrap("ABCDEFG\nHI\n".getBytes());
+
+    try {
+      parser.parse(buffer);
+      Assert.fail();
+    } catch (GarbledMessageException e) {
+    }
+    Assert.assertEquals("EFG", string(parser.parse(buffer)));
+    Assert.assertEquals("HI", string(parser.parse(buffer)));
+  }
+
+  @Test
+  public void resumesScanOfPartialFrame() throws Exception {
+    DelimiterParser parser = new DelimiterParser("\r\n".getBytes());
+    ParseState state = new ParseState();
+    byte[] data = "ABCDEFGH\r\n".getBytes();
+    try {
+      parser.parse(ByteBuffer.wrap(data, 0, 9), state);
+      Assert.fail();
+    } catch (PartialMessageException e) {
+    }
+    Assert.assertEquals(9, state.scanned());
+    Assert.assertEquals("ABCDEFGH", string(parser.parse(ByteBuffer.wrap(data), state)));
+  }
+
+  @Test
+  public void findsSameDelimitersAsByteByByteScan() throws Exception {
+    Random random = new Random(1);
+    byte[][] delimiters = { { 0 }, { (byte) 0x80 }, { 'x', 'y' }, { 1, 1, 2 } };
+    for (byte[] delimiter : delimiters) {
+      DelimiterParser parser = new DelimiterParser(delimiter);
+      for (int n = 0; n < 1000; n++) {
+        byte[] data = new byte[random.nextInt(40)];
+        for (int i = 0; i < data.length; i++)
+          data[i] = random.nextInt(4) == 0 ? delimiter[random.nextInt(delimiter.length)] : (byte) random.nextInt(256);
+        int from = data.length > 0 ? random.nextInt(data.length) : 0;
+        int expected = naiveIndexOf(data, delimiter, from);
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+          ByteBuffer buffer = ByteBuffer.wrap(data).order(order);
+          Assert.assertEquals(expected, parser.indexOf(buffer, from, data.length));
+        }
+      }
+    }
+  }
+
+  private static int naiveIndexOf(byte[] data, byte[] delimiter, int from) {
+    outer: for (int i = from; i <= data.length - delimiter.length; i++) {
+      for (int j = 0; j < delimiter.length; j++) {
+        if (data[i + j] != delimiter[j])
+          continue outer;
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static String string(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes);
+  }
+}
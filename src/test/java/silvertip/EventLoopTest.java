@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventLoopTest {
+  @Test
+  public void runsStartHookOnPinnedLoopThread() throws Exception {
+    final EventLoop loop = new EventLoop(Events.open(), "event-loop-test");
+    final AtomicReference<Thread> hookThread = new AtomicReference<Thread>();
+    final CountDownLatch started = new CountDownLatch(1);
+    loop.setAffinity(0);
+    loop.setTimeout(10);
+    loop.setStartHook(new Runnable() {
+      @Override public void run() {
+        hookThread.set(Thread.currentThread());
+        started.countDown();
+      }
+    });
+    loop.start();
+
+    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    loop.stop();
+    loop.join();
+
+    Assert.assertSame(loop.thread(), hookThread.get());
+  }
+
+  @Test
+  public void threadIdsDifferBetweenThreads() throws Exception {
+    if (!new File("/proc/thread-self/stat").exists())
+      return;
+    final AtomicReference<String> otherThreadId = new AtomicReference<String>();
+    Thread thread = new Thread() {
+      @Override public void run() {
+        try {
+          otherThreadId.set(Affinity.currentThreadId());
+        } catch (IOException e) {
+        }
+      }
+    };
+    thread.start();
+    thread.join();
+    String threadId = Affinity.currentThreadId();
+    Assert.assertNotNull(otherThreadId.get());
+    Assert.assertFalse(threadId.equals(otherThreadId.get()));
+    Assert.assertEquals(threadId, Affinity.currentThreadId());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidCpus() throws Exception {
+    new EventLoop(Events.open(), "event-loop-test").setAffinity(-1);
+  }
+}
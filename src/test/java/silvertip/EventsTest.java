@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventsTest {
+  private final List<String> fired = new ArrayList<String>();
+  private Events events;
+
+  @Before
+  public void setUp() throws Exception {
+    events = Events.open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    events.close();
+  }
+
+  @Test
+  public void runsTimeoutsInDeadlineOrder() throws Exception {
+    events.schedule(task("b"), 20, TimeUnit.MILLISECONDS);
+    events.schedule(task("a"), 10, TimeUnit.MILLISECONDS);
+    events.schedule(task("c"), 20, TimeUnit.MILLISECONDS);
+
+    while (events.process(1000))
+      ;
+    Assert.assertEquals("[a, b, c]", fired.toString());
+  }
+
+  @Test
+  public void cancelledTimeoutDoesNotRun() throws Exception {
+    Timeout timeout = events.schedule(task("a"), 10, TimeUnit.MILLISECONDS);
+    timeout.cancel();
+
+    Assert.assertFalse(events.process(50));
+    Assert.assertTrue(fired.isEmpty());
+  }
+
+  @Test
+  public void cancellingMostTimeoutsKeepsTheRest() throws Exception {
+    List<Timeout> timeouts = new ArrayList<Timeout>();
+    for (int i = 0; i < 1000; i++)
+      timeouts.add(events.schedule(task(Integer.toString(i)), i % 10, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < timeouts.size(); i++) {
+      if (i % 250 != 0)
+        timeouts.get(i).cancel();
+    }
+
+    while (events.process(1000))
+      ;
+    Assert.assertEquals("[0, 250, 500, 750]", fired.toString());
+  }
+
+  @Test
+  public void rescheduledTimeoutRunsOnNextPass() throws Exception {
+    events.schedule(new Runnable() {
+      @Override public void run() {
+        fired.add("a");
+        events.schedule(task("b"), 0, TimeUnit.MILLISECONDS);
+      }
+    }, 0, TimeUnit.MILLISECONDS);
+
+    Assert.assertTrue(events.processNow());
+    Assert.assertEquals("[a]", fired.toString());
+    Assert.assertFalse(events.processNow());
+    Assert.assertEquals("[a, b]", fired.toString());
+  }
+
+  private Runnable task(final String name) {
+    return new Runnable() {
+      @Override public void run() {
+        fired.add(name);
+      }
+    };
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LanedQueueTest {
+  private static final MessageEncoder<String> ENCODER = new MessageEncoder<String>() {
+    @Override public void encode(String message, ByteBuffer buffer) {
+      buffer.put(message.getBytes());
+    }
+  };
+
+  private final StubChannel channel = new StubChannel();
+
+  @Test
+  public void urgentMessageWaitsForPartlyWrittenMessageOnly() throws Exception {
+    LanedQueue queue = new LanedQueue(new BufferQueue());
+    normal(queue, "AAAA");
+    normal(queue, "BBBB");
+    normal(queue, "CCCC");
+    channel.accept(6);
+    Assert.assertFalse(queue.flush(channel));
+    urgent(queue, "!");
+    channel.accept(Integer.MAX_VALUE);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals("AAAABBBB!CCCC", channel.written());
+    Assert.assertEquals(13, queue.bytesWritten);
+  }
+
+  @Test
+  public void urgentMessageGoesFirstAtBoundary() throws Exception {
+    LanedQueue queue = new LanedQueue(new TransmitRing(64));
+    normal(queue, "AAAA");
+    normal(queue, "BBBB");
+    urgent(queue, "!");
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals("!AAAABBBB", channel.written());
+  }
+
+  @Test
+  public void boundariesQueuedBeforeLanesAreKept() throws Exception {
+    BufferQueue normal = new BufferQueue();
+    normal(normal, "AAAA");
+    normal(normal, "BBBB");
+    channel.accept(2);
+    Assert.assertFalse(normal.flush(channel));
+    LanedQueue queue = new LanedQueue(normal);
+    urgent(queue, "!");
+    normal(queue, "CCCC");
+    channel.accept(Integer.MAX_VALUE);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals("AAAA!BBBBCCCC", channel.written());
+  }
+
+  @Test
+  public void conflatedSlotsAreMessages() throws Exception {
+    LanedQueue queue = new LanedQueue(new ConflatingQueue(new ConflationKey<String>() {
+      @Override public Object key(String message) {
+        return message.charAt(0);
+      }
+    }));
+    normal(queue, "AAAA");
+    normal(queue, "BBBB");
+    channel.accept(1);
+    Assert.assertFalse(queue.flush(channel));
+    urgent(queue, "!");
+    normal(queue, "Bbbb");
+    channel.accept(Integer.MAX_VALUE);
+    Assert.assertTrue(queue.flush(channel));
+    Assert.assertEquals("AAAA!Bbbb", channel.written());
+  }
+
+  private void normal(TransmitQueue queue, String message) {
+    queue.encode(message, ENCODER, null);
+    queue.endOfMessage();
+  }
+
+  private void urgent(LanedQueue queue, String message) {
+    queue.urgent().encode(message, ENCODER, null);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LzCodecTest {
+  private final LzCodec encoder = new LzCodec();
+  private final LzCodec decoder = new LzCodec();
+  private final ByteBuffer frames = ByteBuffer.allocate(256 * 1024);
+
+  @Test
+  public void roundTripRandomData() throws Exception {
+    byte[] data = new byte[10000];
+    new Random(1).nextBytes(data);
+    Assert.assertArrayEquals(data, roundTrip(data));
+  }
+
+  @Test
+  public void roundTripRepetitiveData() throws Exception {
+    byte[] data = repetitive(200000);
+    Assert.assertArrayEquals(data, roundTrip(data));
+    Assert.assertTrue(frames.position() < data.length / 10);
+  }
+
+  @Test
+  public void reusesDictionaryAcrossFrames() throws Exception {
+    byte[] message = "8=FIX.4.2|35=W|55=ERICB.ST|268=2|269=0|270=71.50|271=1000|269=1|270=71.55|".getBytes();
+    encoder.encode(ByteBuffer.wrap(message), frames);
+    int first = frames.position();
+    encoder.encode(ByteBuffer.wrap(message), frames);
+    int second = frames.position() - first;
+    Assert.assertTrue(second < first / 4);
+
+    frames.flip();
+    ByteBuffer target = ByteBuffer.allocate(message.length * 2);
+    Assert.assertEquals(0, decoder.decode(frames, target));
+    Assert.assertEquals(message.length * 2, target.position());
+  }
+
+  @Test
+  public void bypassesSmallMessages() throws Exception {
+    byte[] message = "PING\n".getBytes();
+    encoder.encode(ByteBuffer.wrap(message), frames);
+    Assert.assertEquals(2 + message.length, frames.position());
+    Assert.assertArrayEquals(message, decodeAll());
+  }
+
+  @Test
+  public void waitsForCompleteFrame() throws Exception {
+    byte[] data = repetitive(1000);
+    encoder.encode(ByteBuffer.wrap(data), frames);
+    frames.flip();
+    int length = frames.limit();
+    frames.limit(length - 1);
+    ByteBuffer target = ByteBuffer.allocate(data.length);
+    Assert.assertEquals(0, decoder.decode(frames, target));
+    Assert.assertEquals(0, frames.position());
+    frames.limit(length);
+    Assert.assertEquals(0, decoder.decode(frames, target));
+    Assert.assertEquals(data.length, target.position());
+  }
+
+  @Test
+  public void requestsRoomForFrame() throws Exception {
+    byte[] data = repetitive(1000);
+    encoder.encode(ByteBuffer.wrap(data), frames);
+    frames.flip();
+    Assert.assertEquals(data.length, decoder.decode(frames, ByteBuffer.allocate(10)));
+    Assert.assertEquals(0, frames.position());
+  }
+
+  @Test(expected = GarbledMessageException.class)
+  public void rejectsGarbledFrame() throws Exception {
+    frames.put(new byte[] { 1, 3, 10, (byte) 0x10, 'A', 5 });
+    frames.flip();
+    decoder.decode(frames, ByteBuffer.allocate(100));
+  }
+
+  @Test
+  public void encodeOverflowHasNoSideEffects() throws Exception {
+    byte[] data = repetitive(1000);
+    ByteBuffer source = ByteBuffer.wrap(data);
+    try {
+      encoder.encode(source, ByteBuffer.allocate(10));
+      Assert.fail();
+    } catch (BufferOverflowException e) {
+    }
+    Assert.assertEquals(0, source.position());
+    Assert.assertArrayEquals(data, roundTrip(data));
+  }
+
+  private byte[] roundTrip(byte[] data) throws Exception {
+    ByteBuffer source = ByteBuffer.wrap(data);
+    while (source.hasRemaining())
+      encoder.encode(source, frames);
+    return decodeAll();
+  }
+
+  private byte[] decodeAll() throws Exception {
+    frames.flip();
+    ByteBuffer target = ByteBuffer.allocate(256 * 1024);
+    Assert.assertEquals(0, decoder.decode(frames, target));
+    Assert.assertFalse(frames.hasRemaining());
+    byte[] result = new byte[target.position()];
+    target.flip();
+    target.get(result);
+    return result;
+  }
+
+  private static byte[] repetitive(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++)
+      data[i] = (byte) ("ABCDEFGHIJ".charAt(i % 10) + (i / 1000) % 3);
+    return data;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+  @Test
+  public void countsConnectionTraffic() throws Exception {
+    File file = File.createTempFile("silvertip", ".capture");
+    try {
+      Capture capture = Capture.open(file);
+      capture.record(ByteBuffer.wrap("one\ntw".getBytes()), 0, 6);
+      capture.record(ByteBuffer.wrap("o\ntoolong\n".getBytes()), 0, 10);
+      capture.close();
+
+      DelimiterParser parser = new DelimiterParser((byte) '\n');
+      parser.setMaxFrameLength(4);
+      Connection<ByteBuffer> connection = new Connection<ByteBuffer>(null, parser, new Callback());
+      Replay replay = Replay.open(file);
+      replay.run(connection);
+      replay.close();
+
+      Map<String, Long> snapshot = connection.metrics().snapshot();
+      Assert.assertEquals(16L, (long) snapshot.get("BytesIn"));
+      Assert.assertEquals(3L, (long) snapshot.get("MessagesIn"));
+      Assert.assertEquals(1L, (long) snapshot.get("GarbledMessages"));
+      Assert.assertEquals(3L, (long) snapshot.get("MessagesOut"));
+      Assert.assertEquals(12L, (long) snapshot.get("BytesOut"));
+      Assert.assertEquals(0L, (long) snapshot.get("TxQueueBytes"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void countsEventLoopIterationsAndTimeouts() throws Exception {
+    Events events = Events.open();
+    events.schedule(new Runnable() {
+      @Override public void run() {
+      }
+    }, 0, TimeUnit.MILLISECONDS);
+    events.processNow();
+    events.close();
+
+    Assert.assertEquals(1, events.metrics().get("Iterations"));
+    Assert.assertEquals(1, events.metrics().get("TimeoutsRun"));
+    Assert.assertEquals(0, events.metrics().get("Sources"));
+  }
+
+  @Test
+  public void exposesMetricsOverJmx() throws Exception {
+    Metrics metrics = new Metrics("Count");
+    metrics.add(0, 42);
+    metrics.register("silvertip:type=Test,name=MetricsTest");
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      Assert.assertEquals(42L, server.getAttribute(new ObjectName("silvertip:type=Test,name=MetricsTest"), "Count"));
+    } finally {
+      metrics.unregister();
+    }
+    Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+        new ObjectName("silvertip:type=Test,name=MetricsTest")));
+  }
+
+  private static class Callback implements Connection.Callback<ByteBuffer> {
+    @Override public void connected(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+      while (messages.hasNext()) {
+        messages.next();
+        connection.send("ack\n".getBytes());
+      }
+    }
+
+    @Override public void closed(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void garbledMessage(Connection<ByteBuffer> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
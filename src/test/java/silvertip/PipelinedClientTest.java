@@ -0,0 +1,246 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PipelinedClientTest {
+  private final List<Long> completed = new ArrayList<Long>();
+  private final List<Long> timedOut = new ArrayList<Long>();
+  private final List<Long> failed = new ArrayList<Long>();
+  private Events events;
+  private Server server;
+  private int port;
+
+  @Before
+  public void setUp() throws Exception {
+    port = new Random(System.currentTimeMillis()).nextInt(1024) + 4096;
+    events = Events.open();
+    server = Server.accept(port, new Server.ConnectionFactory<Long>() {
+      @Override public Connection<Long> newConnection(SocketChannel channel) {
+        return new Connection<Long>(channel, new LongParser(), new Responder());
+      }
+    });
+    events.register(server);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+    events.close();
+  }
+
+  @Test
+  public void matchesResponsesAndExpiresUnanswered() throws Exception {
+    PipelinedClient<Long, Long> client = new PipelinedClient<Long, Long>(events, new LongEncoder(),
+        new Identity(), 4, 100, TimeUnit.MILLISECONDS);
+    events.register(Connection.connect(new InetSocketAddress("localhost", port), new LongParser(), client));
+    for (long id = 1; id <= 10; id++)
+      client.send(id, new Recorder());
+    Assert.assertEquals(4, client.inFlight());
+    Assert.assertEquals(6, client.pending());
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (completed.size() + timedOut.size() < 10 && System.currentTimeMillis() < deadline)
+      events.process(10);
+
+    Assert.assertEquals("[1, 2, 4, 5, 7, 8, 10]", sorted(completed).toString());
+    Assert.assertEquals("[3, 6, 9]", sorted(timedOut).toString());
+    Assert.assertEquals(0, client.inFlight());
+    Assert.assertEquals(0, client.pending());
+  }
+
+  /*
+   * The timer is set for the deadline of the oldest request, so a request
+   * times out close to its deadline rather than up to a polling interval
+   * later.
+   */
+  @Test
+  public void timesOutAtDeadline() throws Exception {
+    long timeout = 400;
+    PipelinedClient<Long, Long> client = new PipelinedClient<Long, Long>(events, new LongEncoder(),
+        new Identity(), 4, timeout, TimeUnit.MILLISECONDS);
+    events.register(Connection.connect(new InetSocketAddress("localhost", port), new LongParser(), client));
+    /* Send a while after connecting, out of phase with any periodic check. */
+    long idle = System.currentTimeMillis() + timeout / 8;
+    while (client.connection() == null || System.currentTimeMillis() < idle)
+      events.process(1);
+    long start = System.nanoTime();
+    client.send(3L, new Recorder());
+    client.send(1L, new Recorder());
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (timedOut.isEmpty() && System.currentTimeMillis() < deadline)
+      events.process(10);
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    Assert.assertEquals("[3]", timedOut.toString());
+    Assert.assertEquals("[1]", completed.toString());
+    Assert.assertTrue("timed out after " + elapsed + " ms", elapsed >= timeout);
+    Assert.assertTrue("timed out after " + elapsed + " ms", elapsed < timeout + timeout / 16);
+  }
+
+  @Test
+  public void matchesOldestRequestWithSameId() throws Exception {
+    PipelinedClient<Long, Long> client = new PipelinedClient<Long, Long>(events, new LongEncoder(),
+        new Identity(), 4, 10, TimeUnit.SECONDS);
+    events.register(Connection.connect(new InetSocketAddress("localhost", port), new LongParser(), client));
+    final List<String> matched = new ArrayList<String>();
+    client.send(1L, new Recorder() {
+      @Override public void completed(Long request, Long response) {
+        matched.add("first");
+      }
+    });
+    client.send(1L, new Recorder() {
+      @Override public void completed(Long request, Long response) {
+        matched.add("second");
+      }
+    });
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (matched.size() < 2 && System.currentTimeMillis() < deadline)
+      events.process(10);
+
+    Assert.assertEquals("[first, second]", matched.toString());
+    Assert.assertEquals(0, client.inFlight());
+  }
+
+  @Test
+  public void failsOutstandingRequestsOnClose() throws Exception {
+    PipelinedClient<Long, Long> client = new PipelinedClient<Long, Long>(events, new LongEncoder(),
+        new Identity(), 2, 10, TimeUnit.SECONDS);
+    Connection<Long> connection = Connection.connect(new InetSocketAddress("localhost", port), new LongParser(), client);
+    events.register(connection);
+    client.send(3L, new Recorder());
+    client.send(6L, new Recorder());
+    client.send(9L, new Recorder());
+    Assert.assertEquals(2, client.inFlight());
+    Assert.assertEquals(1, client.pending());
+
+    connection.close();
+
+    Assert.assertEquals("[3, 6, 9]", sorted(failed).toString());
+    Assert.assertEquals(0, client.inFlight());
+    Assert.assertEquals(0, client.pending());
+  }
+
+  @Test
+  public void freesSlotWhenSendFails() throws Exception {
+    PipelinedClient<Long, Long> client = new PipelinedClient<Long, Long>(events, new LongEncoder() {
+      @Override public void encode(Long message, ByteBuffer buffer) {
+        if (message < 0)
+          throw new IllegalArgumentException("Negative request");
+        super.encode(message, buffer);
+      }
+    }, new Identity(), 1, 10, TimeUnit.SECONDS);
+    events.register(Connection.connect(new InetSocketAddress("localhost", port), new LongParser(), client));
+    try {
+      client.send(-1L, new Recorder());
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+    }
+    Assert.assertEquals(0, client.inFlight());
+
+    client.send(1L, new Recorder());
+    Assert.assertEquals(1, client.inFlight());
+    Assert.assertEquals(0, client.pending());
+  }
+
+  private static List<Long> sorted(List<Long> ids) {
+    List<Long> result = new ArrayList<Long>(ids);
+    Collections.sort(result);
+    return result;
+  }
+
+  private class Recorder implements PipelinedClient.ResponseCallback<Long, Long> {
+    @Override public void completed(Long request, Long response) {
+      completed.add(request);
+    }
+
+    @Override public void timedOut(Long request) {
+      timedOut.add(request);
+    }
+
+    @Override public void failed(Long request) {
+      failed.add(request);
+    }
+  }
+
+  private static class Identity implements PipelinedClient.Correlation<Long, Long> {
+    @Override public long requestId(Long request) {
+      return request;
+    }
+
+    @Override public long responseId(Long response) {
+      return response;
+    }
+  }
+
+  private static class LongEncoder implements MessageEncoder<Long> {
+    @Override public void encode(Long message, ByteBuffer buffer) {
+      buffer.putLong(message);
+    }
+  }
+
+  private static class LongParser implements MessageParser<Long> {
+    @Override public Long parse(ByteBuffer buffer) throws PartialMessageException {
+      if (buffer.remaining() < 8)
+        throw new PartialMessageException();
+      return buffer.getLong();
+    }
+  }
+
+  /**
+   * Answers requests in reverse order of arrival within each read and drops
+   * every request whose id is a multiple of three.
+   */
+  private static class Responder implements Connection.Callback<Long> {
+    @Override public void connected(Connection<Long> connection) {
+    }
+
+    @Override public void messages(Connection<Long> connection, Iterator<Long> messages) {
+      List<Long> requests = new ArrayList<Long>();
+      while (messages.hasNext())
+        requests.add(0, messages.next());
+      for (Long request : requests) {
+        if (request % 3 != 0)
+          connection.send(request, new LongEncoder());
+      }
+    }
+
+    @Override public void closed(Connection<Long> connection) {
+    }
+
+    @Override public void garbledMessage(Connection<Long> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProbeTest {
+  private final List<String> events = new ArrayList<String>();
+
+  @Test
+  public void reportsActivityAboveThresholds() throws Exception {
+    int port = new Random(System.currentTimeMillis()).nextInt(1024) + 8192;
+    Events loop = Events.open();
+    Probe probe = new RecordingProbe();
+    probe.setSlowDispatchThreshold(0, TimeUnit.NANOSECONDS);
+    probe.setLargeBatchThreshold(3);
+    loop.setProbe(probe);
+    Server server = Server.accept(port, new Server.ConnectionFactory<ByteBuffer>() {
+      @Override public Connection<ByteBuffer> newConnection(SocketChannel channel) {
+        DelimiterParser parser = new DelimiterParser((byte) '\n');
+        parser.setMaxFrameLength(4);
+        return new Connection<ByteBuffer>(channel, parser, new Callback());
+      }
+    });
+    loop.register(server);
+    Socket client = new Socket("localhost", port);
+    OutputStream out = client.getOutputStream();
+    await(loop, "accepted");
+    out.write("a\nb\nc\n".getBytes());
+    out.flush();
+    await(loop, "largeBatch 3");
+    out.write("toolong\n".getBytes());
+    out.flush();
+    await(loop, "garbledMessage");
+    out.write("big\n".getBytes());
+    out.flush();
+    await(loop, "backpressure true");
+    Assert.assertTrue(events.contains("partialWrite"));
+    client.close();
+    await(loop, "closed");
+    Assert.assertTrue(events.contains("slowDispatch"));
+    server.close();
+    loop.close();
+  }
+
+  private void await(Events loop, String event) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!events.contains(event) && System.currentTimeMillis() < deadline)
+      loop.process(10);
+    Assert.assertTrue(event, events.contains(event));
+  }
+
+  private class RecordingProbe extends Probe {
+    @Override public void slowDispatch(long nanos, int keys) {
+      events.add("slowDispatch");
+    }
+
+    @Override public void partialWrite(Connection<?> connection, long written, long pending) {
+      events.add("partialWrite");
+    }
+
+    @Override public void backpressure(Connection<?> connection, boolean blocked, long pending) {
+      events.add("backpressure " + blocked);
+    }
+
+    @Override public void largeBatch(Connection<?> connection, int messages) {
+      events.add("largeBatch " + messages);
+    }
+
+    @Override public void garbledMessage(Connection<?> connection, String message) {
+      events.add("garbledMessage");
+    }
+
+    @Override public void accepted(Connection<?> connection) {
+      events.add("accepted");
+    }
+
+    @Override public void closed(Connection<?> connection) {
+      events.add("closed");
+    }
+  }
+
+  private static class Callback implements Connection.Callback<ByteBuffer> {
+    @Override public void connected(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+      while (messages.hasNext()) {
+        ByteBuffer message = messages.next();
+        if (message.remaining() == 3 && message.get(message.position()) == 'b')
+          connection.send(ByteBuffer.allocate(16 * 1024 * 1024));
+      }
+    }
+
+    @Override public void closed(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void garbledMessage(Connection<ByteBuffer> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
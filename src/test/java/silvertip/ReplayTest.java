@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayTest {
+  private final List<String> lines = new ArrayList<String>();
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("silvertip", ".capture");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+  }
+
+  @Test
+  public void replaysLiveCapture() throws Exception {
+    int port = new Random(System.currentTimeMillis()).nextInt(1024) + 7168;
+    final Capture capture = Capture.open(file);
+    Events events = Events.open();
+    Server server = Server.accept(port, new Server.ConnectionFactory<ByteBuffer>() {
+      @Override public Connection<ByteBuffer> newConnection(SocketChannel channel) {
+        Connection<ByteBuffer> connection = new Connection<ByteBuffer>(channel, new DelimiterParser((byte) '\n'),
+            new Callback());
+        connection.setCapture(capture);
+        return connection;
+      }
+    });
+    events.register(server);
+    Socket client = new Socket("localhost", port);
+    OutputStream out = client.getOutputStream();
+    out.write("one\ntw".getBytes());
+    out.flush();
+    awaitLines(events, 1);
+    out.write("o\nthree\n".getBytes());
+    out.flush();
+    awaitLines(events, 3);
+    client.close();
+    server.close();
+    events.close();
+    capture.close();
+    Assert.assertNull(capture.failure());
+
+    List<String> captured = new ArrayList<String>(lines);
+    lines.clear();
+    Replay replay = Replay.open(file);
+    Connection<ByteBuffer> connection = new Connection<ByteBuffer>(null, new DelimiterParser((byte) '\n'), new Callback());
+    replay.run(connection);
+    replay.close();
+
+    Assert.assertEquals(captured, lines);
+    Assert.assertEquals(capture.records(), replay.records());
+    Assert.assertEquals(14, replay.bytesReceived());
+    Assert.assertEquals(3 * 4, replay.bytesSent());
+    Assert.assertTrue(connection.isClosed());
+  }
+
+  @Test
+  public void preservesReadBoundariesAndPacing() throws Exception {
+    Capture capture = Capture.open(file);
+    capture.record(ByteBuffer.wrap("a\nb".getBytes()), 0, 3);
+    Thread.sleep(50);
+    capture.record(ByteBuffer.wrap("xx\nc\n".getBytes()), 2, 3);
+    capture.close();
+
+    final List<Integer> batches = new ArrayList<Integer>();
+    Replay replay = Replay.open(file);
+    replay.setPaced(true);
+    replay.run(new Connection<ByteBuffer>(null, new DelimiterParser((byte) '\n'), new Callback() {
+      @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+        int count = lines.size();
+        super.messages(connection, messages);
+        batches.add(lines.size() - count);
+      }
+    }));
+    replay.close();
+
+    Assert.assertEquals("[a, b, c]", lines.toString());
+    Assert.assertEquals("[1, 2]", batches.toString());
+    Assert.assertTrue(replay.elapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  private void awaitLines(Events events, int count) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (lines.size() < count && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertEquals(count, lines.size());
+  }
+
+  private class Callback implements Connection.Callback<ByteBuffer> {
+    @Override public void connected(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+      while (messages.hasNext()) {
+        ByteBuffer message = messages.next();
+        byte[] data = new byte[message.remaining()];
+        message.get(data);
+        lines.add(new String(data));
+        connection.send("ack\n".getBytes());
+      }
+    }
+
+    @Override public void closed(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void garbledMessage(Connection<ByteBuffer> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServerTest {
+  private final List<Socket> clients = new ArrayList<Socket>();
+  private int port;
+  private int connected;
+  private SocketChannel accepted;
+  private Events events;
+  private Server server;
+
+  @Before
+  public void setUp() throws Exception {
+    port = new Random(System.currentTimeMillis()).nextInt(1024) + 3072;
+    events = Events.open();
+    server = Server.accept(port, 128, new Server.ConnectionFactory<Object>() {
+      @Override public Connection<Object> newConnection(SocketChannel channel) {
+        accepted = channel;
+        return new Connection<Object>(channel, null, new Callback());
+      }
+    });
+    events.register(server);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (Socket client : clients)
+      client.close();
+    server.close();
+    events.close();
+  }
+
+  @Test
+  public void acceptsConnectionsInBatches() throws Exception {
+    server.setAcceptBatchSize(10);
+    connect(25);
+
+    events.processNow();
+    Assert.assertEquals(10, connected);
+    events.processNow();
+    Assert.assertEquals(20, connected);
+    events.processNow();
+    Assert.assertEquals(25, connected);
+  }
+
+  @Test
+  public void appliesSocketOptions() throws Exception {
+    SocketOptions options = new SocketOptions();
+    options.setTcpNoDelay(true);
+    server.setSocketOptions(options);
+    connect(1);
+
+    events.processNow();
+    Assert.assertEquals(1, connected);
+    Assert.assertTrue(accepted.socket().getTcpNoDelay());
+  }
+
+  @Test
+  public void rejectsConnectionsOverLimit() throws Exception {
+    AdmissionControl admissionControl = new AdmissionControl();
+    admissionControl.setMaxConnections(2);
+    server.setAdmissionControl(admissionControl);
+    connect(3);
+
+    events.processNow();
+    Assert.assertEquals(2, connected);
+    Assert.assertEquals(2, admissionControl.connections());
+    Assert.assertEquals(1, admissionControl.rejected());
+  }
+
+  @Test
+  public void reusePort() throws Exception {
+    Assume.assumeTrue(Server.isReusePortSupported());
+
+    Events[] loops = new Events[] { Events.open(), Events.open() };
+    Server[] servers = new Server[loops.length];
+    for (int i = 0; i < loops.length; i++) {
+      servers[i] = Server.acceptReusePort(port + 1, 0, new Server.ConnectionFactory<Object>() {
+        @Override public Connection<Object> newConnection(SocketChannel channel) {
+          return new Connection<Object>(channel, null, new Callback());
+        }
+      });
+      loops[i].register(servers[i]);
+    }
+    try {
+      for (int i = 0; i < 10; i++)
+        clients.add(new Socket("localhost", port + 1));
+
+      for (int i = 0; i < loops.length; i++)
+        loops[i].processNow();
+      Assert.assertEquals(10, connected);
+    } finally {
+      for (int i = 0; i < loops.length; i++) {
+        servers[i].close();
+        loops[i].close();
+      }
+    }
+  }
+
+  private void connect(int count) throws Exception {
+    for (int i = 0; i < count; i++)
+      clients.add(new Socket("localhost", port));
+  }
+
+  private class Callback implements Connection.Callback<Object> {
+    @Override public void connected(Connection<Object> connection) {
+      connected++;
+    }
+
+    @Override public void messages(Connection<Object> connection, Iterator<Object> messages) {}
+    @Override public void closed(Connection<Object> connection) {}
+    @Override public void garbledMessage(Connection<Object> connection, String message, byte[] data) {}
+    @Override public void sent(ByteBuffer buffer) {}
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedMemoryConnectionTest {
+  private File aToB;
+  private File bToA;
+  private Events events;
+
+  @Before
+  public void setUp() throws Exception {
+    aToB = File.createTempFile("silvertip", ".ring");
+    bToA = File.createTempFile("silvertip", ".ring");
+    aToB.delete();
+    bToA.delete();
+    events = Events.open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    events.close();
+    aToB.delete();
+    bToA.delete();
+  }
+
+  @Test
+  public void exchangesMessages() throws Exception {
+    Callback a = new Callback();
+    Callback b = new Callback() {
+      @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+        while (messages.hasNext()) {
+          ByteBuffer message = messages.next();
+          byte[] data = new byte[message.remaining() + 1];
+          message.get(data, 0, data.length - 1);
+          data[data.length - 1] = '\n';
+          connection.send(data);
+        }
+      }
+    };
+    SharedMemoryConnection<ByteBuffer> connectionA = open(bToA, aToB, a);
+    SharedMemoryConnection<ByteBuffer> connectionB = open(aToB, bToA, b);
+    events.register(connectionA);
+    events.register(connectionB);
+
+    for (int i = 0; i < 1000; i++)
+      connectionA.send(("message " + i + "\n").getBytes());
+    long deadline = System.currentTimeMillis() + 5000;
+    while (a.lines.size() < 1000 && System.currentTimeMillis() < deadline)
+      events.process(10);
+
+    Assert.assertEquals(1000, a.lines.size());
+    Assert.assertEquals("message 999", a.lines.get(999));
+
+    connectionA.close();
+    while (!b.closed && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertTrue(b.closed);
+  }
+
+  @Test
+  public void doorbellWakesBlockedReceiver() throws Exception {
+    final CountDownLatch received = new CountDownLatch(1);
+    final SharedMemoryConnection<ByteBuffer> receiver = open(aToB, bToA, new Callback() {
+      @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+        received.countDown();
+      }
+    });
+    events.register(receiver);
+    Thread thread = new Thread() {
+      @Override public void run() {
+        try {
+          while (received.getCount() > 0)
+            events.process(10000);
+        } catch (Exception e) {
+        }
+      }
+    };
+    thread.start();
+
+    Events senderEvents = Events.open();
+    SharedMemoryConnection<ByteBuffer> sender = open(bToA, aToB, new Callback());
+    senderEvents.register(sender);
+    Thread.sleep(100);
+    sender.send("wake up\n".getBytes());
+
+    Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+    thread.join();
+    senderEvents.close();
+  }
+
+  private static SharedMemoryConnection<ByteBuffer> open(File rx, File tx, Callback callback) throws Exception {
+    return SharedMemoryConnection.open(rx, tx, 4096, new DelimiterParser((byte) '\n'), callback);
+  }
+
+  private static class Callback implements Connection.Callback<ByteBuffer> {
+    final List<String> lines = new ArrayList<String>();
+    boolean closed;
+
+    @Override public void connected(Connection<ByteBuffer> connection) {
+    }
+
+    @Override public void messages(Connection<ByteBuffer> connection, Iterator<ByteBuffer> messages) {
+      while (messages.hasNext()) {
+        ByteBuffer message = messages.next();
+        byte[] data = new byte[message.remaining()];
+        message.get(data);
+        lines.add(new String(data));
+      }
+    }
+
+    @Override public void closed(Connection<ByteBuffer> connection) {
+      closed = true;
+    }
+
+    @Override public void garbledMessage(Connection<ByteBuffer> connection, String message, byte[] data) {
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.LinkedList;
+
+/**
+ * A channel that accepts a configurable number of bytes and records them, and
+ * that returns received chunks one read at a time.
+ */
+class StubChannel implements ByteChannel, GatheringByteChannel {
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+  private final LinkedList<ByteBuffer> input = new LinkedList<ByteBuffer>();
+  private int acceptable = Integer.MAX_VALUE;
+  private int reads;
+
+  void accept(int acceptable) {
+    this.acceptable = acceptable;
+  }
+
+  String written() {
+    return new String(output.toByteArray());
+  }
+
+  ByteBuffer bytes() {
+    return ByteBuffer.wrap(output.toByteArray());
+  }
+
+  /**
+   * Makes a later <code>read()</code> return <code>chunk</code>, or as much
+   * of it as fits; the rest is returned by the read after that.
+   */
+  void receive(String chunk) {
+    input.add(ByteBuffer.wrap(chunk.getBytes()));
+  }
+
+  int reads() {
+    return reads;
+  }
+
+  @Override public int read(ByteBuffer dst) {
+    reads++;
+    ByteBuffer chunk = input.peek();
+    if (chunk == null)
+      return 0;
+    int length = Math.min(chunk.remaining(), dst.remaining());
+    for (int i = 0; i < length; i++)
+      dst.put(chunk.get());
+    if (!chunk.hasRemaining())
+      input.remove();
+    return length;
+  }
+
+  @Override public int write(ByteBuffer src) {
+    int length = Math.min(src.remaining(), acceptable);
+    for (int i = 0; i < length; i++)
+      output.write(src.get());
+    acceptable -= length;
+    return length;
+  }
+
+  @Override public long write(ByteBuffer[] srcs, int offset, int length) {
+    long total = 0;
+    for (int i = offset; i < offset + length; i++)
+      total += write(srcs[i]);
+    return total;
+  }
+
+  @Override public long write(ByteBuffer[] srcs) {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override public boolean isOpen() {
+    return true;
+  }
+
+  @Override public void close() {
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransmitRingTest {
+  private static final Connection.Callback<Object> CALLBACK = new Connection.Callback<Object>() {
+    @Override public void connected(Connection<Object> connection) {}
+    @Override public void messages(Connection<Object> connection, Iterator<Object> messages) {}
+    @Override public void closed(Connection<Object> connection) {}
+    @Override public void garbledMessage(Connection<Object> connection, String message, byte[] data) {}
+    @Override public void sent(ByteBuffer buffer) {}
+  };
+
+  private static final MessageEncoder<String> ENCODER = new MessageEncoder<String>() {
+    @Override public void encode(String message, ByteBuffer buffer) {
+      buffer.put(message.getBytes());
+    }
+  };
+
+  private final TransmitRing ring = new TransmitRing(8);
+  private final StubChannel channel = new StubChannel();
+
+  @Test
+  public void copiesAddedBuffers() throws Exception {
+    ByteBuffer buffer = ByteBuffer.wrap("ABCD".getBytes());
+    ring.add(buffer);
+    Assert.assertEquals(0, buffer.position());
+    Assert.assertTrue(ring.flush(channel));
+    Assert.assertEquals("ABCD", channel.written());
+  }
+
+  @Test
+  public void addWrapsAround() throws Exception {
+    ring.add(ByteBuffer.wrap("ABCDEF".getBytes()));
+    channel.accept(4);
+    Assert.assertFalse(ring.flush(channel));
+    ring.add(ByteBuffer.wrap("GHIJKL".getBytes()));
+    Assert.assertEquals(8, ring.size());
+    channel.accept(Integer.MAX_VALUE);
+    Assert.assertTrue(ring.flush(channel));
+    Assert.assertEquals("ABCDEFGHIJKL", channel.written());
+    Assert.assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void encodeSkipsEndOfRing() throws Exception {
+    ring.encode("ABCDEF", ENCODER, CALLBACK);
+    channel.accept(4);
+    Assert.assertFalse(ring.flush(channel));
+    ring.encode("GHI", ENCODER, CALLBACK);
+    Assert.assertEquals(5, ring.size());
+    channel.accept(Integer.MAX_VALUE);
+    Assert.assertTrue(ring.flush(channel));
+    Assert.assertEquals("ABCDEFGHI", channel.written());
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void addFailsWhenFull() throws Exception {
+    ring.add(ByteBuffer.wrap("ABCDEF".getBytes()));
+    ring.add(ByteBuffer.wrap("GHI".getBytes()));
+  }
+
+  @Test
+  public void encodeFailsWhenFull() throws Exception {
+    ring.encode("ABCDEF", ENCODER, CALLBACK);
+    try {
+      ring.encode("GHI", ENCODER, CALLBACK);
+      Assert.fail();
+    } catch (BufferOverflowException e) {
+    }
+    Assert.assertEquals(6, ring.size());
+    Assert.assertTrue(ring.flush(channel));
+    Assert.assertEquals("ABCDEF", channel.written());
+  }
+}
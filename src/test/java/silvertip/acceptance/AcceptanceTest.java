@@ -15,8 +15,13 @@
  */
 package silvertip.acceptance;
 
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Assert;
 import org.junit.Test;
 
+import silvertip.samples.loadgen.LoadGenerator;
 import silvertip.samples.pingpong.PingClient;
 import silvertip.samples.pingpong.PongServer;
 
@@ -35,4 +40,26 @@ public class AcceptanceTest {
     serverThread.join();
     client.join();
   }
+
+  @Test
+  public void loadGenerator() throws Exception {
+    LoadGenerator.Config config = new LoadGenerator.Config();
+    config.port = new Random(System.currentTimeMillis()).nextInt(1024) + 2048;
+    config.embeddedServer = true;
+    config.connections = 50;
+    config.inFlight = 2;
+    config.sessionMessages = 100;
+    config.durationSeconds = 2;
+
+    LoadGenerator generator = new LoadGenerator(config, new PrintStream(new NullOutputStream()));
+    generator.run();
+
+    Assert.assertEquals(0, generator.failures());
+    Assert.assertTrue("no messages received", generator.messagesIn() > 0);
+  }
+
+  private static class NullOutputStream extends java.io.OutputStream {
+    @Override public void write(int b) {
+    }
+  }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.fix;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import silvertip.GarbledMessageException;
+import silvertip.ParseState;
+import silvertip.PartialMessageException;
+
+public class FixParserTest {
+  private final FixMessagePool pool = new FixMessagePool(4);
+  private final FixParser parser = new FixParser(pool);
+
+  @Test
+  public void parsesMessage() throws Exception {
+    ByteBuffer buffer = buffer(message("35=D|49=SENDER|56=TARGET|34=12|44=101.25|38=-500|55=AB|"));
+    FixMessage message = parser.parse(buffer);
+
+    Assert.assertFalse(buffer.hasRemaining());
+    Assert.assertEquals(buffer.limit(), message.length());
+    Assert.assertEquals(10, message.fieldCount());
+    Assert.assertEquals('D', message.getChar(35));
+    Assert.assertEquals(12, message.getLong(34));
+    Assert.assertEquals(-500, message.getLong(38));
+    Assert.assertEquals(1012500, message.getDecimal(44, 4));
+    Assert.assertEquals("SENDER", message.getString(49));
+    Assert.assertEquals("FIX.4.2", message.getString(8));
+    Assert.assertTrue(message.valueEquals(56, "TARGET".getBytes()));
+    Assert.assertFalse(message.contains(11));
+    Assert.assertEquals(10, message.tagAt(message.fieldCount() - 1));
+  }
+
+  @Test
+  public void readsRepeatingGroupsByIndex() throws Exception {
+    FixMessage message = parser.parse(buffer(message("35=W|268=2|269=0|270=1.5|269=1|270=1.75|2000=X|")));
+
+    int first = message.indexOf(269);
+    int second = message.indexOf(269, first + 1);
+    Assert.assertEquals(15, message.decimalAt(first + 1, 1));
+    Assert.assertEquals(175, message.decimalAt(second + 1, 2));
+    Assert.assertEquals(-1, message.indexOf(269, second + 1));
+    Assert.assertEquals('X', message.getChar(2000));
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void rejectsDecimalThatDoesNotFitScale() throws Exception {
+    parser.parse(buffer(message("35=D|44=1.25|"))).getDecimal(44, 1);
+  }
+
+  @Test
+  public void waitsForWholeMessage() throws Exception {
+    byte[] data = message("35=0|");
+    for (int length = 0; length < data.length; length++) {
+      ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+      try {
+        parser.parse(buffer);
+        Assert.fail();
+      } catch (PartialMessageException e) {
+      }
+    }
+  }
+
+  @Test
+  public void recordsLengthOfPartialMessage() throws Exception {
+    byte[] data = message("35=0|");
+    ParseState state = new ParseState();
+    try {
+      parser.parse(ByteBuffer.wrap(data, 0, 20), state);
+      Assert.fail();
+    } catch (PartialMessageException e) {
+    }
+    Assert.assertEquals(data.length, state.length());
+    Assert.assertEquals('0', parser.parse(buffer(data), state).getChar(35));
+  }
+
+  @Test
+  public void skipsGarbledMessage() throws Exception {
+    byte[] first = message("35=0|");
+    first[first.length - 2]++;
+    byte[] second = message("35=1|");
+    ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length);
+    buffer.put(first).put(second).flip();
+
+    try {
+      parser.parse(buffer);
+      Assert.fail();
+    } catch (GarbledMessageException e) {
+      Assert.assertEquals(first.length, e.getMessageData().length);
+    }
+    Assert.assertEquals('1', parser.parse(buffer).getChar(35));
+  }
+
+  @Test
+  public void reusesPooledMessages() throws Exception {
+    FixMessage message = parser.parse(buffer(message("35=0|")));
+    pool.release(message);
+
+    FixMessage reused = parser.parse(buffer(message("35=1|")));
+    Assert.assertSame(message, reused);
+    Assert.assertEquals('1', reused.getChar(35));
+    Assert.assertEquals(4, reused.fieldCount());
+  }
+
+  private static ByteBuffer buffer(byte[] data) {
+    return ByteBuffer.wrap(data);
+  }
+
+  /*
+   * Builds a FIX.4.2 message around body, in which '|' stands for SOH.
+   */
+  private static byte[] message(String body) {
+    String head = "8=FIX.4.2|9=" + body.length() + "|";
+    byte[] data = (head + body).replace('|', '\u0001').getBytes();
+    int checksum = 0;
+    for (byte b : data)
+      checksum += b;
+    return (head + body + String.format("10=%03d|", checksum & 0xff)).replace('|', '\u0001').getBytes();
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.flow;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import silvertip.Connection;
+import silvertip.DelimiterParser;
+import silvertip.Events;
+import silvertip.MessageEncoder;
+import silvertip.Server;
+
+public class ConnectionPublisherTest {
+  private final List<String> items = new ArrayList<String>();
+  private final List<Connection<ByteBuffer>> accepted = new ArrayList<Connection<ByteBuffer>>();
+  private final ConnectionPublisher<ByteBuffer> publisher = new ConnectionPublisher<ByteBuffer>();
+  private Flow.Subscription subscription;
+  private boolean completed;
+  private Events events;
+  private Server server;
+  private Socket client;
+
+  @Before
+  public void setUp() throws Exception {
+    int port = new Random(System.currentTimeMillis()).nextInt(1024) + 11264;
+    events = Events.open();
+    server = Server.accept(port, new Server.ConnectionFactory<ByteBuffer>() {
+      @Override public Connection<ByteBuffer> newConnection(SocketChannel channel) {
+        Connection<ByteBuffer> connection = new Connection<ByteBuffer>(channel, new DelimiterParser((byte) '\n'),
+            publisher);
+        accepted.add(connection);
+        return connection;
+      }
+    });
+    events.register(server);
+    client = new Socket("localhost", port);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.close();
+    events.close();
+  }
+
+  @Test
+  public void deliversOnlyRequestedItems() throws Exception {
+    publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+      @Override public void onSubscribe(Flow.Subscription subscription) {
+        ConnectionPublisherTest.this.subscription = subscription;
+        subscription.request(3);
+      }
+
+      @Override public void onNext(ByteBuffer item) {
+        byte[] data = new byte[item.remaining()];
+        item.get(data);
+        items.add(new String(data));
+      }
+
+      @Override public void onError(Throwable throwable) {
+        Assert.fail(throwable.toString());
+      }
+
+      @Override public void onComplete() {
+        completed = true;
+      }
+    });
+    OutputStream out = client.getOutputStream();
+    for (int i = 0; i < 10; i++)
+      out.write(("item" + i + "\n").getBytes());
+    out.flush();
+
+    await(3);
+    for (int i = 0; i < 10; i++)
+      events.process(5);
+    Assert.assertEquals(3, items.size());
+
+    subscription.request(5);
+    Assert.assertEquals(8, items.size());
+    subscription.request(Long.MAX_VALUE);
+    await(10);
+    Assert.assertEquals("item9", items.get(9));
+
+    client.close();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!completed && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertTrue(completed);
+  }
+
+  @Test
+  public void sendsItemsOfPublisher() throws Exception {
+    final int count = 1000;
+    long deadline = System.currentTimeMillis() + 5000;
+    while (accepted.isEmpty() && System.currentTimeMillis() < deadline)
+      events.process(10);
+    ConnectionSubscriber<String> subscriber = new ConnectionSubscriber<String>(accepted.get(0),
+        new MessageEncoder<String>() {
+          @Override public void encode(String message, ByteBuffer buffer) {
+            buffer.put(message.getBytes());
+          }
+        }, 16, 1024);
+    final int[] requested = new int[1];
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override public void request(long n) {
+        requested[0] += n;
+      }
+
+      @Override public void cancel() {
+      }
+    });
+    Assert.assertEquals(16, requested[0]);
+    for (int i = 0; i < count; i++) {
+      Assert.assertTrue(requested[0] > i);
+      subscriber.onNext("x");
+    }
+    subscriber.onComplete();
+    InputStream in = client.getInputStream();
+    int received = 0;
+    while (received < count && in.read() >= 0)
+      received++;
+    Assert.assertEquals(count, received);
+  }
+
+  private void await(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (items.size() < count && System.currentTimeMillis() < deadline)
+      events.process(10);
+    Assert.assertEquals(count, items.size());
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.samples.loadgen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import silvertip.Connection;
+import silvertip.Events;
+import silvertip.Server;
+
+/**
+ * Echoes every frame back to the sender. Used as the target of
+ * <code>LoadGenerator</code>, either in-process or as a standalone server.
+ */
+public class EchoServer implements Runnable {
+  private final Events events;
+  private final Server server;
+  private volatile boolean stopped;
+
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : LoadGenerator.DEFAULT_PORT;
+    new EchoServer(port).run();
+  }
+
+  public EchoServer(int port) throws IOException {
+    this.events = Events.open();
+    this.server = Server.accept(port, new Server.ConnectionFactory<byte[]>() {
+      @Override public Connection<byte[]> newConnection(SocketChannel channel) {
+        return new Connection<byte[]>(channel, new FrameParser(), new Connection.Callback<byte[]>() {
+          @Override public void connected(Connection<byte[]> connection) {
+          }
+
+          @Override public void messages(Connection<byte[]> connection, Iterator<byte[]> messages) {
+            while (messages.hasNext())
+              connection.send(messages.next());
+          }
+
+          @Override public void closed(Connection<byte[]> connection) {
+          }
+
+          @Override public void garbledMessage(Connection<byte[]> connection, String message, byte[] data) {
+            connection.close();
+          }
+
+          @Override public void sent(ByteBuffer buffer) {
+          }
+        });
+      }
+    });
+    this.events.register(server);
+  }
+
+  public void stop() {
+    stopped = true;
+    events.selector().wakeup();
+  }
+
+  @Override public void run() {
+    try {
+      while (!stopped)
+        events.process(100);
+      server.close();
+      events.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
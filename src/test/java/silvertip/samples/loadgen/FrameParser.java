@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.samples.loadgen;
+
+import java.nio.ByteBuffer;
+
+import silvertip.GarbledMessageException;
+import silvertip.MessageParser;
+import silvertip.PartialMessageException;
+
+/**
+ * Parses load generator frames. A frame starts with a four byte length field
+ * that covers the whole frame, followed by an eight byte send timestamp and
+ * padding up to the frame length.
+ */
+public class FrameParser implements MessageParser<byte[]> {
+  public static final int HEADER_LENGTH = 12;
+
+  public byte[] parse(ByteBuffer buffer) throws GarbledMessageException, PartialMessageException {
+    if (buffer.remaining() < 4)
+      throw new PartialMessageException();
+    int length = buffer.getInt(buffer.position());
+    if (length < HEADER_LENGTH) {
+      /* Without a valid length there is no way to find the next frame. */
+      byte[] data = new byte[buffer.remaining()];
+      buffer.get(data);
+      throw new GarbledMessageException("invalid frame length: " + length, data);
+    }
+    if (buffer.remaining() < length)
+      throw new PartialMessageException();
+    byte[] frame = new byte[length];
+    buffer.get(frame);
+    return frame;
+  }
+
+  public static byte[] newFrame(int length, long timestamp) {
+    byte[] frame = new byte[Math.max(length, HEADER_LENGTH)];
+    ByteBuffer buffer = ByteBuffer.wrap(frame);
+    buffer.putInt(frame.length);
+    buffer.putLong(timestamp);
+    return frame;
+  }
+
+  public static long timestamp(byte[] frame) {
+    return ByteBuffer.wrap(frame).getLong(4);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.samples.loadgen;
+
+/**
+ * A log-linear histogram of non-negative <code>long</code> values. Values are
+ * recorded with roughly 3% precision into a fixed number of buckets so that
+ * recording never allocates.
+ */
+public class Histogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private final long[] counts = new long[64 << SUB_BUCKET_BITS];
+  private long totalCount;
+  private long max;
+
+  public void record(long value) {
+    if (value < 0)
+      value = 0;
+    counts[index(value)]++;
+    totalCount++;
+    if (value > max)
+      max = value;
+  }
+
+  public void reset() {
+    for (int i = 0; i < counts.length; i++)
+      counts[i] = 0;
+    totalCount = 0;
+    max = 0;
+  }
+
+  public long count() {
+    return totalCount;
+  }
+
+  public long max() {
+    return max;
+  }
+
+  /**
+   * Returns the smallest recorded value that is greater than or equal to
+   * <code>percentile</code> percent of all recorded values.
+   */
+  public long percentile(double percentile) {
+    if (totalCount == 0)
+      return 0;
+    long target = (long) Math.ceil(percentile / 100.0 * totalCount);
+    if (target < 1)
+      target = 1;
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      if (cumulative >= target)
+        return Math.min(highestEquivalentValue(i), max);
+    }
+    return max;
+  }
+
+  private static int index(long value) {
+    if (value < SUB_BUCKET_COUNT)
+      return (int) value;
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int shift = magnitude - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+    return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+  }
+
+  private static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT)
+      return index;
+    int shift = (index >> SUB_BUCKET_BITS) - 1;
+    long subBucket = index & (SUB_BUCKET_COUNT - 1);
+    return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+  }
+}
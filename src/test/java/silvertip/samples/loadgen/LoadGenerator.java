@@ -0,0 +1,359 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.samples.loadgen;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import silvertip.Connection;
+import silvertip.Events;
+
+/**
+ * A load generator for Silvertip servers. It opens a configurable number of
+ * connections at a controlled rate, keeps a configurable number of frames in
+ * flight on each of them and optionally reconnects every connection after a
+ * number of frames to exercise connect/disconnect churn. The target server is
+ * expected to echo every frame back; see <code>EchoServer</code>.
+ * <p>
+ * The generator reports throughput, round-trip latency percentiles, event loop
+ * lag and the heap footprint per connection. If <code>maxP99Micros</code> is
+ * set, the run fails when the 99th percentile latency exceeds it, which makes
+ * the generator usable as a regression gate.
+ * <p>
+ * Options are given as <code>--name=value</code> pairs, for example:
+ *
+ * <pre>
+ *   LoadGenerator --connections=20000 --connectRate=2000 --inFlight=4 --durationSeconds=60
+ * </pre>
+ */
+public class LoadGenerator implements Runnable {
+  public static final int DEFAULT_PORT = 4445;
+
+  private static final long LOOP_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  public static class Config {
+    public String host = "localhost";
+    public int port = DEFAULT_PORT;
+    public int connections = 100;
+    public int connectRate = 1000;
+    public int inFlight = 1;
+    public int minMessageSize = 16;
+    public int maxMessageSize = 256;
+    public int sessionMessages = 0;
+    public int durationSeconds = 10;
+    public int reportIntervalSeconds = 1;
+    public long maxP99Micros = 0;
+    public boolean embeddedServer = false;
+
+    public static Config parse(String[] args) {
+      Config config = new Config();
+      for (String arg : args) {
+        if (!arg.startsWith("--") || arg.indexOf('=') < 0)
+          throw new IllegalArgumentException("Invalid option: " + arg);
+        String name = arg.substring(2, arg.indexOf('='));
+        String value = arg.substring(arg.indexOf('=') + 1);
+        try {
+          Config.class.getField(name).set(config, convert(Config.class.getField(name).getType(), value));
+        } catch (NoSuchFieldException e) {
+          throw new IllegalArgumentException("Unknown option: " + name);
+        } catch (IllegalAccessException e) {
+          throw new IllegalArgumentException("Unknown option: " + name);
+        }
+      }
+      return config;
+    }
+
+    private static Object convert(Class<?> type, String value) {
+      if (type == int.class)
+        return Integer.parseInt(value);
+      if (type == long.class)
+        return Long.parseLong(value);
+      if (type == boolean.class)
+        return Boolean.parseBoolean(value);
+      return value;
+    }
+  }
+
+  private final Histogram latency = new Histogram();
+  private final Histogram intervalLatency = new Histogram();
+  private final Histogram loopLag = new Histogram();
+  private final Histogram intervalLoopLag = new Histogram();
+  private final Set<Session> sessions = new LinkedHashSet<Session>();
+  private final Random random = new Random();
+  private final Config config;
+  private final PrintStream out;
+
+  private long messagesIn;
+  private long messagesOut;
+  private long bytesIn;
+  private long bytesOut;
+  private long connects;
+  private long disconnects;
+  private long failures;
+  private long heapPerConnection = -1;
+  private long elapsedNanos;
+  private int active;
+
+  public static void main(String[] args) {
+    LoadGenerator generator = new LoadGenerator(Config.parse(args), System.out);
+    generator.run();
+    System.exit(generator.passed() ? 0 : 1);
+  }
+
+  public LoadGenerator(Config config, PrintStream out) {
+    this.config = config;
+    this.out = out;
+  }
+
+  @Override public void run() {
+    EchoServer server = null;
+    Thread serverThread = null;
+    try {
+      if (config.embeddedServer) {
+        server = new EchoServer(config.port);
+        serverThread = new Thread(server, "echo-server");
+        serverThread.start();
+      }
+      generate();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      if (server != null) {
+        server.stop();
+        try {
+          serverThread.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    printSummary();
+  }
+
+  private void generate() throws IOException {
+    Events events = Events.open();
+    InetSocketAddress address = new InetSocketAddress(config.host, config.port);
+    long baselineHeap = usedHeap();
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+    long reportInterval = TimeUnit.SECONDS.toNanos(config.reportIntervalSeconds);
+    long nextReport = start + reportInterval;
+    long lastIntervalStart = start;
+    long intervalMessages = 0;
+    long intervalBytes = 0;
+    long lastRefill = start;
+    double connectTokens = 1;
+    long nextTick = start + LOOP_TICK_NANOS;
+
+    while (true) {
+      long now = System.nanoTime();
+      if (now >= end)
+        break;
+
+      connectTokens = Math.min(config.connectRate,
+          connectTokens + (now - lastRefill) * config.connectRate / (double) TimeUnit.SECONDS.toNanos(1));
+      lastRefill = now;
+      while (connectTokens >= 1 && active < config.connections) {
+        connectTokens--;
+        open(events, address);
+      }
+
+      if (heapPerConnection < 0 && active == config.connections) {
+        heapPerConnection = (usedHeap() - baselineHeap) / config.connections;
+        nextTick = System.nanoTime() + LOOP_TICK_NANOS;
+      }
+
+      if (!events.process(1)) {
+        sleep();
+      }
+
+      now = System.nanoTime();
+      if (now >= nextTick) {
+        loopLag.record(now - nextTick);
+        intervalLoopLag.record(now - nextTick);
+        nextTick = now + LOOP_TICK_NANOS;
+      }
+
+      if (now >= nextReport) {
+        report(now - lastIntervalStart, messagesIn - intervalMessages, bytesIn + bytesOut - intervalBytes);
+        lastIntervalStart = now;
+        intervalMessages = messagesIn;
+        intervalBytes = bytesIn + bytesOut;
+        nextReport = now + reportInterval;
+      }
+    }
+    elapsedNanos = System.nanoTime() - start;
+
+    for (Session session : new ArrayList<Session>(sessions))
+      session.close();
+    events.close();
+  }
+
+  private void open(Events events, InetSocketAddress address) {
+    Session session = new Session();
+    try {
+      Connection<byte[]> connection = Connection.open(address, new FrameParser(), session);
+      session.connection = connection;
+      sessions.add(session);
+      active++;
+      events.register(connection);
+    } catch (IOException e) {
+      failures++;
+    }
+  }
+
+  private void report(long intervalNanos, long messages, long bytes) {
+    double seconds = intervalNanos / (double) TimeUnit.SECONDS.toNanos(1);
+    out.printf("active=%d connects=%d disconnects=%d failures=%d msg/s=%.0f MB/s=%.2f "
+        + "latency(us) p50=%d p99=%d p99.9=%d max=%d lag(us) p99=%d max=%d%n", active, connects, disconnects,
+        failures, messages / seconds, bytes / seconds / (1024 * 1024), micros(intervalLatency.percentile(50)),
+        micros(intervalLatency.percentile(99)), micros(intervalLatency.percentile(99.9)),
+        micros(intervalLatency.max()), micros(intervalLoopLag.percentile(99)), micros(intervalLoopLag.max()));
+    intervalLatency.reset();
+    intervalLoopLag.reset();
+  }
+
+  private void printSummary() {
+    double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+    out.printf("--- summary ---%n");
+    out.printf("duration: %.1f s%n", seconds);
+    out.printf("connections: connects=%d disconnects=%d failures=%d%n", connects, disconnects, failures);
+    out.printf("messages: in=%d out=%d (%.0f msg/s)%n", messagesIn, messagesOut, messagesIn / seconds);
+    out.printf("throughput: in=%.2f MB/s out=%.2f MB/s%n", bytesIn / seconds / (1024 * 1024), bytesOut / seconds
+        / (1024 * 1024));
+    out.printf("latency (us): p50=%d p90=%d p99=%d p99.9=%d max=%d%n", micros(latency.percentile(50)),
+        micros(latency.percentile(90)), micros(latency.percentile(99)), micros(latency.percentile(99.9)),
+        micros(latency.max()));
+    out.printf("loop lag (us): p50=%d p99=%d max=%d%n", micros(loopLag.percentile(50)), micros(loopLag.percentile(99)),
+        micros(loopLag.max()));
+    if (heapPerConnection >= 0)
+      out.printf("heap per connection: %d bytes%n", heapPerConnection);
+    out.printf("result: %s%n", passed() ? "PASSED" : "FAILED");
+  }
+
+  public boolean passed() {
+    if (failures > 0 || messagesIn == 0)
+      return false;
+    if (config.maxP99Micros > 0 && micros(latency.percentile(99)) > config.maxP99Micros)
+      return false;
+    return true;
+  }
+
+  public long messagesIn() {
+    return messagesIn;
+  }
+
+  public long failures() {
+    return failures;
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+      runtime.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private class Session implements Connection.Callback<byte[]> {
+    private Connection<byte[]> connection;
+    private int sent;
+    private int received;
+    private boolean established;
+    private boolean closing;
+
+    @Override public void connected(Connection<byte[]> connection) {
+      established = true;
+      connects++;
+      for (int i = 0; i < config.inFlight; i++)
+        send(connection);
+    }
+
+    @Override public void messages(Connection<byte[]> connection, Iterator<byte[]> messages) {
+      long now = System.nanoTime();
+      while (messages.hasNext()) {
+        byte[] frame = messages.next();
+        long roundTrip = now - FrameParser.timestamp(frame);
+        latency.record(roundTrip);
+        intervalLatency.record(roundTrip);
+        messagesIn++;
+        bytesIn += frame.length;
+        received++;
+        if (config.sessionMessages > 0 && received >= config.sessionMessages) {
+          if (received == sent) {
+            close();
+            return;
+          }
+        } else {
+          send(connection);
+        }
+      }
+    }
+
+    private void send(Connection<byte[]> connection) {
+      int size = config.minMessageSize;
+      if (config.maxMessageSize > config.minMessageSize)
+        size += random.nextInt(config.maxMessageSize - config.minMessageSize + 1);
+      byte[] frame = FrameParser.newFrame(size, System.nanoTime());
+      sent++;
+      messagesOut++;
+      bytesOut += frame.length;
+      connection.send(frame);
+    }
+
+    private void close() {
+      closing = true;
+      connection.close();
+    }
+
+    @Override public void closed(Connection<byte[]> connection) {
+      if (!sessions.remove(this))
+        return;
+      active--;
+      if (established)
+        disconnects++;
+      if (!closing)
+        failures++;
+    }
+
+    @Override public void garbledMessage(Connection<byte[]> connection, String message, byte[] data) {
+      failures++;
+      close();
+    }
+
+    @Override public void sent(ByteBuffer buffer) {
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package silvertip.soupbintcp;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import silvertip.Connection;
+import silvertip.Events;
+import silvertip.Server;
+
+public class SessionTest {
+  private final MemoryMessageStore store = new MemoryMessageStore("SESSION1");
+  private final List<ServerSession> serverSessions = new ArrayList<ServerSession>();
+  private final List<String> received = new ArrayList<String>();
+  private final List<String> unsequenced = new ArrayList<String>();
+  private final List<String> events = new ArrayList<String>();
+  private final PacketPool pool = new PacketPool(16);
+  private Events loop;
+  private Server server;
+  private int port;
+  private long serverHeartbeatMillis = 1000;
+
+  @Before
+  public void setUp() throws Exception {
+    port = new Random(System.currentTimeMillis()).nextInt(1024) + 6144;
+    loop = Events.open();
+    server = Server.accept(port, new Server.ConnectionFactory<Packet>() {
+      @Override public Connection<Packet> newConnection(SocketChannel channel) {
+        ServerSession session = new ServerSession(loop, store, new ServerSession.Authenticator() {
+          @Override public boolean authenticate(String username, String password) {
+            return username.equals("user") && password.equals("secret");
+          }
+        }, new ServerListener());
+        session.setHeartbeatInterval(serverHeartbeatMillis, TimeUnit.MILLISECONDS);
+        serverSessions.add(session);
+        Connection<Packet> connection = new Connection<Packet>(channel, new PacketParser(pool), session);
+        connection.setMessagePool(pool);
+        return connection;
+      }
+    });
+    loop.register(server);
+    for (int i = 1; i <= 3; i++)
+      store.add(message("message " + i));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+    loop.close();
+  }
+
+  @Test
+  public void replaysFromRequestedSequenceNumberAndResumes() throws Exception {
+    ClientSession client = newClient();
+    client.setRequestedSession("", 2);
+    connect(client);
+    awaitReceived(2);
+    Assert.assertEquals("[message 2, message 3]", received.toString());
+    Assert.assertEquals("SESSION1", client.sessionName());
+
+    store.add(message("message 4"));
+    for (ServerSession session : serverSessions)
+      session.catchUp();
+    awaitReceived(3);
+
+    client.close();
+    store.add(message("message 5"));
+    connect(client);
+    awaitReceived(4);
+    Assert.assertEquals("[message 2, message 3, message 4, message 5]", received.toString());
+    Assert.assertEquals(6, client.nextSequenceNumber());
+  }
+
+  @Test
+  public void replaysLargeStoreInChunksBeforeEndOfSession() throws Exception {
+    for (int i = 4; i <= 20000; i++)
+      store.add(message("message " + i));
+    ClientSession client = newClient();
+    client.setRequestedSession("", 1);
+    connect(client);
+    await(client);
+    serverSessions.get(0).endOfSession();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (events.isEmpty() && System.currentTimeMillis() < deadline)
+      loop.process(10);
+    Assert.assertEquals(20000, received.size());
+    Assert.assertEquals("[end of session]", events.toString());
+  }
+
+  @Test
+  public void sendsUnsequencedData() throws Exception {
+    ClientSession client = newClient();
+    client.setRequestedSession("", 0);
+    connect(client);
+    await(client);
+    client.sendUnsequenced(message("order"));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (unsequenced.isEmpty() && System.currentTimeMillis() < deadline)
+      loop.process(10);
+    Assert.assertEquals("[order]", unsequenced.toString());
+    Assert.assertTrue(received.isEmpty());
+  }
+
+  @Test
+  public void rejectsInvalidCredentials() throws Exception {
+    ClientSession client = newClient();
+    client.setCredentials("user", "wrong");
+    connect(client);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (events.isEmpty() && System.currentTimeMillis() < deadline)
+      loop.process(10);
+    Assert.assertEquals("[rejected A]", events.toString());
+  }
+
+  @Test
+  public void heartbeatsKeepIdleSessionAlive() throws Exception {
+    serverHeartbeatMillis = 20;
+    ClientSession client = newClient();
+    client.setHeartbeatInterval(20, TimeUnit.MILLISECONDS);
+    client.setTimeout(100, TimeUnit.MILLISECONDS);
+    connect(client);
+    long end = System.currentTimeMillis() + 300;
+    while (System.currentTimeMillis() < end)
+      loop.process(10);
+    Assert.assertTrue(client.isLoggedIn());
+  }
+
+  @Test
+  public void closesSessionWhenPeerIsSilent() throws Exception {
+    ClientSession client = newClient();
+    client.setTimeout(100, TimeUnit.MILLISECONDS);
+    connect(client);
+    long end = System.currentTimeMillis() + 5000;
+    while (client.connection() != null && System.currentTimeMillis() < end)
+      loop.process(10);
+    Assert.assertNull(client.connection());
+    Assert.assertFalse(client.isLoggedIn());
+  }
+
+  private ClientSession newClient() {
+    ClientSession client = new ClientSession(loop, new ClientListener());
+    client.setCredentials("user", "secret");
+    return client;
+  }
+
+  private void connect(ClientSession client) throws Exception {
+    Connection<Packet> connection = Connection.connect(new InetSocketAddress("localhost", port), new PacketParser(pool),
+        client);
+    connection.setMessagePool(pool);
+    loop.register(connection);
+  }
+
+  private void await(ClientSession client) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!client.isLoggedIn() && System.currentTimeMillis() < deadline)
+      loop.process(10);
+    Assert.assertTrue(client.isLoggedIn());
+  }
+
+  private void awaitReceived(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (received.size() < count && System.currentTimeMillis() < deadline)
+      loop.process(10);
+    Assert.assertEquals(count, received.size());
+  }
+
+  private static ByteBuffer message(String text) {
+    return ByteBuffer.wrap(text.getBytes());
+  }
+
+  private static String string(Packet packet) {
+    ByteBuffer buffer = ByteBuffer.allocate(packet.payloadLength());
+    packet.getPayload(buffer);
+    return new String(buffer.array());
+  }
+
+  private class ClientListener implements ClientSession.Listener {
+    @Override public void loginAccepted(ClientSession session) {
+    }
+
+    @Override public void loginRejected(ClientSession session, byte reason) {
+      events.add("rejected " + (char) reason);
+    }
+
+    @Override public void sequencedData(ClientSession session, long sequenceNumber, Packet packet) {
+      Assert.assertEquals("message " + sequenceNumber, string(packet));
+      received.add(string(packet));
+    }
+
+    @Override public void endOfSession(ClientSession session) {
+      events.add("end of session");
+    }
+  }
+
+  private class ServerListener implements ServerSession.Listener {
+    @Override public void loggedIn(ServerSession session, String username) {
+    }
+
+    @Override public void unsequencedData(ServerSession session, Packet packet) {
+      unsequenced.add(string(packet));
+    }
+
+    @Override public void loggedOut(ServerSession session) {
+    }
+  }
+}